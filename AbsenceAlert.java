@@ -0,0 +1,54 @@
+import java.time.DayOfWeek;
+
+public class AbsenceAlert {
+    public enum Type {
+        CONSECUTIVE_ABSENCES,
+        WEEKDAY_ABSENCES
+    }
+
+    private final Type type;
+    private final Student student;
+    private final String subject;
+    private final int absences;
+    private final DayOfWeek weekday;
+
+    public AbsenceAlert(Type type, Student student, String subject, int absences, DayOfWeek weekday) {
+        this.type = type;
+        this.student = student;
+        this.subject = subject;
+        this.absences = absences;
+        this.weekday = weekday;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Student getStudent() {
+        return student;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    // The current run of absences, or the absences on the weekday.
+    public int getAbsences() {
+        return absences;
+    }
+
+    // Only set for WEEKDAY_ABSENCES.
+    public DayOfWeek getWeekday() {
+        return weekday;
+    }
+
+    @Override
+    public String toString() {
+        String pattern = type == Type.CONSECUTIVE_ABSENCES
+                ? absences + " absences in a row"
+                : absences + " absences on " + weekday.toString().charAt(0)
+                        + weekday.toString().substring(1).toLowerCase() + "s";
+        return String.format("%-10s | %-20s | %-15s | %s",
+                             student.getStudentId(), student.getName(), subject, pattern);
+    }
+}
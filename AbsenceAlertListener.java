@@ -0,0 +1,3 @@
+public interface AbsenceAlertListener {
+    void alertRaised(AbsenceAlert alert);
+}
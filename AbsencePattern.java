@@ -0,0 +1,176 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+// Absence state for one (student, subject), updated as marks arrive: the
+// current and longest run of consecutive absences, in date order, and how
+// many marks and absences fell on each weekday. Weekday counts are 9-bit
+// fields packed into two longs, saturating at 511, so the whole state is
+// one small object.
+//
+// record() assumes marks arrive in date order. For a mark dated before the
+// latest one, or an overwritten mark, the owner calls reset() and replays
+// the pair's kept rows. reset() goes back to the state over the archived
+// marks, saved by the owner with setArchived() when it archives, so a
+// replay never reads the archive.
+public class AbsencePattern {
+    private static final int WEEKDAY_BITS = 9;
+    private static final long WEEKDAY_MAX = (1L << WEEKDAY_BITS) - 1;
+
+    private volatile int lastEpochDay = Integer.MIN_VALUE;
+    private volatile int currentStreak;
+    private volatile int longestStreak;
+    private volatile long weekdayMarks;
+    private volatile long weekdayAbsences;
+    // The AbsenceAlert types this pair is flagged for, one bit per ordinal;
+    // kept by the owner so unflagged pairs skip the flag sets.
+    private int alertFlags;
+    // The state over archived marks alone, or null if none are.
+    private AbsencePattern archived;
+
+    public boolean isFlagged(AbsenceAlert.Type type) {
+        return (alertFlags & (1 << type.ordinal())) != 0;
+    }
+
+    public void setFlagged(AbsenceAlert.Type type, boolean flagged) {
+        alertFlags = flagged ? alertFlags | (1 << type.ordinal()) : alertFlags & ~(1 << type.ordinal());
+    }
+
+    // 0 for Monday through 6 for Sunday; epoch day 0 was a Thursday.
+    public static int weekdayOf(int epochDay) {
+        return Math.floorMod(epochDay + 3, 7);
+    }
+
+    public boolean isInOrder(int epochDay) {
+        return epochDay > lastEpochDay;
+    }
+
+    public void record(int epochDay, boolean isPresent) {
+        if (isPresent) {
+            currentStreak = 0;
+        } else {
+            int streak = currentStreak + 1;
+            currentStreak = streak;
+            if (streak > longestStreak) {
+                longestStreak = streak;
+            }
+        }
+        lastEpochDay = Math.max(lastEpochDay, epochDay);
+        int weekday = weekdayOf(epochDay);
+        weekdayMarks = increment(weekdayMarks, weekday);
+        if (!isPresent) {
+            weekdayAbsences = increment(weekdayAbsences, weekday);
+        }
+    }
+
+    public void reset() {
+        AbsencePattern base = archived;
+        if (base == null) {
+            lastEpochDay = Integer.MIN_VALUE;
+            currentStreak = 0;
+            longestStreak = 0;
+            weekdayMarks = 0;
+            weekdayAbsences = 0;
+        } else {
+            copyFrom(base);
+        }
+    }
+
+    // The state reset() returns to, as a copy to record further marks into.
+    public AbsencePattern copyArchived() {
+        AbsencePattern copy = new AbsencePattern();
+        if (archived != null) {
+            copy.copyFrom(archived);
+        }
+        return copy;
+    }
+
+    // Makes the current state the archived one, for when every mark so far
+    // has been archived.
+    public void setArchived() {
+        AbsencePattern copy = new AbsencePattern();
+        copy.copyFrom(this);
+        archived = copy;
+    }
+
+    public void setArchived(AbsencePattern archived) {
+        this.archived = archived;
+    }
+
+    // The state and the archived state; flags are not written, since the
+    // owner sets them again from the state.
+    public void writeTo(DataOutput out) throws IOException {
+        writeState(out);
+        out.writeBoolean(archived != null);
+        if (archived != null) {
+            archived.writeState(out);
+        }
+    }
+
+    public void readFrom(DataInput in) throws IOException {
+        readState(in);
+        if (in.readBoolean()) {
+            archived = new AbsencePattern();
+            archived.readState(in);
+        }
+    }
+
+    public int getCurrentStreak() {
+        return currentStreak;
+    }
+
+    public int getLongestStreak() {
+        return longestStreak;
+    }
+
+    public int getMarks(int weekday) {
+        return (int) ((weekdayMarks >>> (weekday * WEEKDAY_BITS)) & WEEKDAY_MAX);
+    }
+
+    public int getAbsences(int weekday) {
+        return (int) ((weekdayAbsences >>> (weekday * WEEKDAY_BITS)) & WEEKDAY_MAX);
+    }
+
+    // The weekday with the most absences among those where at least
+    // minAbsences absences make up at least half of the marks, or -1.
+    public int getClusteredWeekday(int minAbsences) {
+        int clustered = -1;
+        for (int weekday = 0; weekday < 7; weekday++) {
+            int absences = getAbsences(weekday);
+            if (absences >= minAbsences && absences * 2 >= getMarks(weekday)
+                    && (clustered < 0 || absences > getAbsences(clustered))) {
+                clustered = weekday;
+            }
+        }
+        return clustered;
+    }
+
+    private void writeState(DataOutput out) throws IOException {
+        out.writeInt(lastEpochDay);
+        out.writeInt(currentStreak);
+        out.writeInt(longestStreak);
+        out.writeLong(weekdayMarks);
+        out.writeLong(weekdayAbsences);
+    }
+
+    private void readState(DataInput in) throws IOException {
+        lastEpochDay = in.readInt();
+        currentStreak = in.readInt();
+        longestStreak = in.readInt();
+        weekdayMarks = in.readLong();
+        weekdayAbsences = in.readLong();
+    }
+
+    private void copyFrom(AbsencePattern other) {
+        lastEpochDay = other.lastEpochDay;
+        currentStreak = other.currentStreak;
+        longestStreak = other.longestStreak;
+        weekdayMarks = other.weekdayMarks;
+        weekdayAbsences = other.weekdayAbsences;
+    }
+
+    private static long increment(long fields, int weekday) {
+        int shift = weekday * WEEKDAY_BITS;
+        return ((fields >>> shift) & WEEKDAY_MAX) == WEEKDAY_MAX ? fields : fields + (1L << shift);
+    }
+}
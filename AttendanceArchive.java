@@ -0,0 +1,376 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+
+// Marks dated before the cutoff day, moved off the heap into segment files
+// of one calendar month each. Records in a partition are sorted by student
+// code and then date, so a student's history is a binary search on the
+// mapping. Partitions are only opened when a query needs them, through an
+// LRU cache of at most cacheCapacity open partitions; the per-day record
+// index that date and subject queries use is built the first time one of
+// them asks a cached partition for it.
+//
+// Partitions are added by the writer holding AttendanceManager's lock and
+// published through volatile fields. The cache has its own lock, held only
+// while a partition is looked up or opened.
+public class AttendanceArchive {
+    public static final int DEFAULT_CACHE_CAPACITY = 8;
+
+    private static final class Partition {
+        final Path path;
+        final int size;
+        final int minEpochDay;
+        final int maxEpochDay;
+
+        Partition(AttendanceSegment segment) {
+            this.path = segment.getPath();
+            this.size = segment.size();
+            this.minEpochDay = segment.getMinEpochDay();
+            this.maxEpochDay = segment.getMaxEpochDay();
+        }
+
+        boolean overlaps(int fromDay, int toDay) {
+            return size > 0 && minEpochDay <= toDay && maxEpochDay >= fromDay;
+        }
+    }
+
+    // Record numbers grouped by day: records of minEpochDay + d are
+    // records[starts[d]] to records[starts[d + 1] - 1], in student order.
+    private static final class DayIndex {
+        final int[] starts;
+        final int[] records;
+
+        DayIndex(AttendanceSegment segment) {
+            int days = segment.getMaxEpochDay() - segment.getMinEpochDay() + 1;
+            starts = new int[days + 1];
+            for (int record = 0; record < segment.size(); record++) {
+                starts[segment.getEpochDay(record) - segment.getMinEpochDay() + 1]++;
+            }
+            for (int day = 0; day < days; day++) {
+                starts[day + 1] += starts[day];
+            }
+            records = new int[segment.size()];
+            int[] next = Arrays.copyOf(starts, days);
+            for (int record = 0; record < segment.size(); record++) {
+                records[next[segment.getEpochDay(record) - segment.getMinEpochDay()]++] = record;
+            }
+        }
+    }
+
+    private static final class LoadedPartition {
+        final AttendanceSegment segment;
+        private volatile DayIndex dayIndex;
+
+        LoadedPartition(AttendanceSegment segment) {
+            this.segment = segment;
+        }
+
+        DayIndex dayIndex() {
+            DayIndex index = dayIndex;
+            if (index == null) {
+                synchronized (this) {
+                    index = dayIndex;
+                    if (index == null) {
+                        index = new DayIndex(segment);
+                        dayIndex = index;
+                    }
+                }
+            }
+            return index;
+        }
+
+        long estimateBytes() {
+            DayIndex index = dayIndex;
+            return index == null ? 0 : (long) Integer.BYTES * (index.starts.length + index.records.length);
+        }
+    }
+
+    private final SymbolTable studentIds;
+    private final SymbolTable subjectIds;
+    private volatile Partition[] partitions = new Partition[0];
+    private volatile int cutoffDay = Integer.MIN_VALUE;
+    private volatile long recordCount;
+
+    private final LinkedHashMap<Partition, LoadedPartition> cache;
+    private int cacheCapacity = DEFAULT_CACHE_CAPACITY;
+    private long cacheHits;
+    private long cacheMisses;
+
+    public AttendanceArchive(SymbolTable studentIds, SymbolTable subjectIds) {
+        this.studentIds = studentIds;
+        this.subjectIds = subjectIds;
+        this.cache = new LinkedHashMap<Partition, LoadedPartition>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Partition, LoadedPartition> eldest) {
+                return size() > cacheCapacity;
+            }
+        };
+    }
+
+    // Marks dated before this day are archived; Integer.MIN_VALUE if none are.
+    public int getCutoffDay() {
+        return cutoffDay;
+    }
+
+    public void setCutoffDay(int cutoffDay) {
+        if (cutoffDay < this.cutoffDay) {
+            throw new IllegalArgumentException("Archive cutoff cannot move back to " + LocalDate.ofEpochDay(cutoffDay));
+        }
+        this.cutoffDay = cutoffDay;
+    }
+
+    public boolean isArchived(int epochDay) {
+        return epochDay < cutoffDay;
+    }
+
+    // Adds a partition written by the caller, sorted by student code and
+    // then date, whose days all come after the partitions already attached.
+    public void attach(AttendanceSegment segment) {
+        Partition partition = new Partition(segment);
+        Partition[] current = partitions;
+        if (current.length > 0 && partition.size > 0
+                && partition.minEpochDay <= current[current.length - 1].maxEpochDay) {
+            throw new IllegalArgumentException("Archive partition overlaps an earlier one: " + segment.getPath());
+        }
+        synchronized (cache) {
+            cache.put(partition, new LoadedPartition(segment));
+        }
+        Partition[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = partition;
+        partitions = next;
+        recordCount += partition.size;
+    }
+
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    public Path getPartitionPath(int partition) {
+        return partitions[partition].path;
+    }
+
+    public int getPartitionSize(int partition) {
+        return partitions[partition].size;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    // One student's archived records dated [fromDay, toDay], oldest first.
+    public void addStudentRecords(int studentCode, int fromDay, int toDay, List<AttendanceRecord> result) {
+        for (Partition partition : partitions) {
+            if (!partition.overlaps(fromDay, toDay)) {
+                continue;
+            }
+            AttendanceSegment segment = load(partition).segment;
+            for (int record = firstRecordOf(segment, studentCode);
+                 record < segment.size() && segment.getStudentCode(record) == studentCode; record++) {
+                int epochDay = segment.getEpochDay(record);
+                if (epochDay >= fromDay && epochDay <= toDay) {
+                    result.add(toRecord(segment, record));
+                }
+            }
+        }
+    }
+
+    // {present, total} of one student's archived marks dated [fromDay, toDay].
+    public int[] countStudentMarks(int studentCode, int fromDay, int toDay) {
+        int[] counts = new int[2];
+        for (Partition partition : partitions) {
+            if (!partition.overlaps(fromDay, toDay)) {
+                continue;
+            }
+            AttendanceSegment segment = load(partition).segment;
+            for (int record = firstRecordOf(segment, studentCode);
+                 record < segment.size() && segment.getStudentCode(record) == studentCode; record++) {
+                int epochDay = segment.getEpochDay(record);
+                if (epochDay >= fromDay && epochDay <= toDay) {
+                    if (segment.isPresent(record)) {
+                        counts[0]++;
+                    }
+                    counts[1]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    public void addDateRecords(int epochDay, List<AttendanceRecord> result) {
+        addSubjectRecords(-1, epochDay, epochDay, result);
+    }
+
+    // Archived records of one subject, or of every subject if subjectCode is
+    // negative, dated [fromDay, toDay]: by date, then by student.
+    public void addSubjectRecords(int subjectCode, int fromDay, int toDay, List<AttendanceRecord> result) {
+        for (Partition partition : partitions) {
+            if (!partition.overlaps(fromDay, toDay)) {
+                continue;
+            }
+            LoadedPartition loaded = load(partition);
+            DayIndex index = loaded.dayIndex();
+            int firstDay = Math.max(fromDay, partition.minEpochDay) - partition.minEpochDay;
+            int lastDay = Math.min(toDay, partition.maxEpochDay) - partition.minEpochDay;
+            for (int i = index.starts[firstDay]; i < index.starts[lastDay + 1]; i++) {
+                int record = index.records[i];
+                if (subjectCode < 0 || loaded.segment.getSubjectCode(record) == subjectCode) {
+                    result.add(toRecord(loaded.segment, record));
+                }
+            }
+        }
+    }
+
+    // Session bitmaps of one subject for the archived days in [fromDay,
+    // toDay] on which it was marked, built from the partitions.
+    public NavigableMap<Integer, AttendanceBitmap> getSessions(int subjectCode, int fromDay, int toDay) {
+        NavigableMap<Integer, AttendanceBitmap> sessions = new TreeMap<>();
+        for (Partition partition : partitions) {
+            if (!partition.overlaps(fromDay, toDay)) {
+                continue;
+            }
+            LoadedPartition loaded = load(partition);
+            DayIndex index = loaded.dayIndex();
+            int firstDay = Math.max(fromDay, partition.minEpochDay) - partition.minEpochDay;
+            int lastDay = Math.min(toDay, partition.maxEpochDay) - partition.minEpochDay;
+            for (int day = firstDay; day <= lastDay; day++) {
+                AttendanceBitmap session = null;
+                for (int i = index.starts[day]; i < index.starts[day + 1]; i++) {
+                    int record = index.records[i];
+                    if (loaded.segment.getSubjectCode(record) == subjectCode) {
+                        if (session == null) {
+                            session = new AttendanceBitmap();
+                            sessions.put(partition.minEpochDay + day, session);
+                        }
+                        session.mark(loaded.segment.getStudentCode(record), loaded.segment.isPresent(record));
+                    }
+                }
+            }
+        }
+        return sessions;
+    }
+
+    // Session bitmaps of every subject marked on one archived day, by subject code.
+    public CodeMap<AttendanceBitmap> getSessionsOn(int epochDay) {
+        CodeMap<AttendanceBitmap> sessions = new CodeMap<>();
+        for (Partition partition : partitions) {
+            if (!partition.overlaps(epochDay, epochDay)) {
+                continue;
+            }
+            LoadedPartition loaded = load(partition);
+            DayIndex index = loaded.dayIndex();
+            int day = epochDay - partition.minEpochDay;
+            for (int i = index.starts[day]; i < index.starts[day + 1]; i++) {
+                int record = index.records[i];
+                sessions.computeIfAbsent(loaded.segment.getSubjectCode(record), k -> new AttendanceBitmap())
+                        .mark(loaded.segment.getStudentCode(record), loaded.segment.isPresent(record));
+            }
+        }
+        return sessions;
+    }
+
+    // Visits every archived mark, partition by partition.
+    public void forEach(AttendanceRecordVisitor visitor) {
+        for (Partition partition : partitions) {
+            AttendanceSegment segment = load(partition).segment;
+            for (int record = 0; record < segment.size(); record++) {
+                visit(segment, record, visitor);
+            }
+        }
+    }
+
+    public void setCacheCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Archive cache must hold at least one partition");
+        }
+        synchronized (cache) {
+            cacheCapacity = capacity;
+            Iterator<LoadedPartition> eldest = cache.values().iterator();
+            while (cache.size() > capacity) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    public int getCacheCapacity() {
+        synchronized (cache) {
+            return cacheCapacity;
+        }
+    }
+
+    public int getCachedPartitionCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getCacheHits() {
+        synchronized (cache) {
+            return cacheHits;
+        }
+    }
+
+    public long getCacheMisses() {
+        synchronized (cache) {
+            return cacheMisses;
+        }
+    }
+
+    // Heap held by the day indexes of cached partitions; the records
+    // themselves stay in the mapped files.
+    public long estimateBytes() {
+        long bytes = 0;
+        synchronized (cache) {
+            for (LoadedPartition loaded : cache.values()) {
+                bytes += loaded.estimateBytes();
+            }
+        }
+        return bytes;
+    }
+
+    private LoadedPartition load(Partition partition) {
+        synchronized (cache) {
+            LoadedPartition loaded = cache.get(partition);
+            if (loaded != null) {
+                cacheHits++;
+                return loaded;
+            }
+            cacheMisses++;
+            try {
+                loaded = new LoadedPartition(AttendanceSegment.open(partition.path));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open archived attendance " + partition.path, e);
+            }
+            cache.put(partition, loaded);
+            return loaded;
+        }
+    }
+
+    private static int firstRecordOf(AttendanceSegment segment, int studentCode) {
+        int low = 0;
+        int high = segment.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (segment.getStudentCode(mid) < studentCode) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private AttendanceRecord toRecord(AttendanceSegment segment, int record) {
+        return new AttendanceRecord(studentIds.symbolOf(segment.getStudentCode(record)),
+                                    LocalDate.ofEpochDay(segment.getEpochDay(record)),
+                                    segment.isPresent(record),
+                                    subjectIds.symbolOf(segment.getSubjectCode(record)));
+    }
+
+    private void visit(AttendanceSegment segment, int record, AttendanceRecordVisitor visitor) {
+        visitor.visit(studentIds.symbolOf(segment.getStudentCode(record)), segment.getEpochDay(record),
+                      segment.isPresent(record), subjectIds.symbolOf(segment.getSubjectCode(record)));
+    }
+}
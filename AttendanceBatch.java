@@ -0,0 +1,310 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Headless mode: runs a file or stream of commands against one
+// AttendanceManager and writes one JSON result per command, so scripts and
+// load runs need no console. Commands are comma-separated lines read
+// through CsvReader, quoted as in the CSV files; blank lines and lines
+// starting with # are skipped. Dates are yyyy-MM-dd.
+//
+//   add-student,id,name,email,department
+//   add-subject,name
+//   mark,studentId,date,status,subject              the attendance.csv columns
+//   mark-class,subject,date,"S001,S002","S003"      present, then absent
+//   student,id
+//   students[,prefix[,offset[,limit]]]
+//   attendance,student|subject,value[,from,to]
+//   attendance,date,date
+//   low-attendance,threshold[,subject]
+//   absence-alerts
+//   stats
+//   sample,students,subjects,days[,seed]
+//
+// Output is JSON Lines, {"line":n,"result":{...}} or {"line":n,"error":"..."},
+// with results shaped as the server's. Consecutive marks are validated one
+// by one and recorded through importAttendance in batches of 8192; each
+// batch answers once, on the line of its first mark, with the number of
+// marks it added or changed; repeats are not counted. A failing command is
+// reported and the run goes on; a line that cannot be split stops it.
+public class AttendanceBatch {
+    private static final int BATCH_SIZE = 8192;
+    private static final int OUTPUT_BUFFER_CHARS = 1 << 16;
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final long DEFAULT_SEED = 42;
+
+    private final AttendanceManager manager;
+    private final Writer out;
+    private final StringCache commandCache = new StringCache();
+    private final StringCache studentCache = new StringCache();
+    private final StringCache subjectCache = new StringCache();
+    private final Set<String> knownSubjects;
+    private final int archivedBefore;
+
+    private final String[] studentIds = new String[BATCH_SIZE];
+    private final int[] epochDays = new int[BATCH_SIZE];
+    private final boolean[] present = new boolean[BATCH_SIZE];
+    private final String[] subjects = new String[BATCH_SIZE];
+    private int batch;
+    private long batchLine;
+
+    private long commandCount;
+    private long markCount;
+    private long errorCount;
+
+    public AttendanceBatch(AttendanceManager manager, Writer out) {
+        this.manager = manager;
+        this.out = out;
+        this.knownSubjects = new HashSet<>(manager.getAllSubjects());
+        LocalDate cutoff = manager.getArchiveCutoff();
+        this.archivedBefore = cutoff == null ? Integer.MIN_VALUE : (int) cutoff.toEpochDay();
+    }
+
+    public void run(CsvReader reader) throws IOException {
+        try {
+            while (reader.next()) {
+                String command = reader.cached(0, commandCache);
+                if (command.startsWith("#")) {
+                    continue;
+                }
+                commandCount++;
+                try {
+                    if (command.equals("mark")) {
+                        addMark(reader);
+                    } else {
+                        flushMarks();
+                        result(reader.lineNumber(), execute(command, reader));
+                    }
+                } catch (IllegalArgumentException | DateTimeException e) {
+                    flushMarks();
+                    error(reader.lineNumber(), e.getMessage() == null ? e.toString() : e.getMessage());
+                }
+            }
+        } finally {
+            flushMarks();
+            out.flush();
+        }
+    }
+
+    public long getCommandCount() {
+        return commandCount;
+    }
+
+    public long getMarkCount() {
+        return markCount;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    // Checked here so one bad mark does not fail its whole batch.
+    private void addMark(CsvReader reader) throws IOException {
+        reader.requireFields(5);
+        String studentId = reader.cached(1, studentCache);
+        if (manager.getStudent(studentId) == null) {
+            throw new IllegalArgumentException("Student not found: " + studentId);
+        }
+        int epochDay = reader.epochDay(2);
+        if (epochDay < archivedBefore) {
+            throw new IllegalArgumentException("Attendance before " + LocalDate.ofEpochDay(archivedBefore)
+                                               + " is archived and can no longer be marked");
+        }
+        boolean isPresent = reader.status(3);
+        String subject = reader.cached(4, subjectCache);
+        if (!knownSubjects.contains(subject)) {
+            throw new IllegalArgumentException("Subject not found: " + subject);
+        }
+        if (batch == 0) {
+            batchLine = reader.lineNumber();
+        }
+        studentIds[batch] = studentId;
+        epochDays[batch] = epochDay;
+        present[batch] = isPresent;
+        subjects[batch] = subject;
+        if (++batch == BATCH_SIZE) {
+            flushMarks();
+        }
+    }
+
+    private void flushMarks() throws IOException {
+        if (batch == 0) {
+            return;
+        }
+        int count = batch;
+        batch = 0;
+        int marked;
+        try {
+            marked = manager.importAttendance(studentIds, epochDays, present, subjects, count);
+        } catch (IllegalArgumentException e) {
+            error(batchLine, e.getMessage());
+            return;
+        }
+        markCount += marked;
+        result(batchLine, "{\"marked\":" + marked + "}");
+    }
+
+    private String execute(String command, CsvReader reader) {
+        switch (command) {
+            case "add-student":
+                reader.requireFields(5);
+                manager.addStudent(new Student(reader.string(1), reader.string(2), reader.string(3),
+                                               reader.string(4)));
+                return "{\"added\":1}";
+            case "add-subject": {
+                reader.requireFields(2);
+                String subject = reader.string(1);
+                manager.addSubject(subject);
+                knownSubjects.add(subject);
+                return "{\"added\":1}";
+            }
+            case "mark-class": {
+                reader.requireFields(3);
+                int marked = manager.markClassAttendance(reader.string(1), LocalDate.ofEpochDay(reader.epochDay(2)),
+                                                         list(reader, 3), list(reader, 4));
+                markCount += marked;
+                return "{\"marked\":" + marked + "}";
+            }
+            case "student": {
+                reader.requireFields(2);
+                String studentId = reader.string(1);
+                Student student = manager.getStudent(studentId);
+                if (student == null) {
+                    throw new IllegalArgumentException("Student not found: " + studentId);
+                }
+                return AttendanceJson.student(manager, student);
+            }
+            case "students": {
+                String prefix = reader.fieldCount() > 1 ? reader.string(1) : "";
+                int offset = reader.fieldCount() > 2 ? Integer.parseInt(reader.string(2)) : 0;
+                int limit = reader.fieldCount() > 3 ? Integer.parseInt(reader.string(3)) : DEFAULT_PAGE_SIZE;
+                List<Student> students = manager.searchStudentsByName(prefix, offset, limit);
+                return AttendanceJson.studentsPage(manager, offset, students);
+            }
+            case "attendance":
+                return AttendanceJson.records(attendance(reader));
+            case "low-attendance": {
+                reader.requireFields(2);
+                double threshold = Double.parseDouble(reader.string(1));
+                List<Student> students = reader.fieldCount() > 2
+                        ? manager.getLowAttendanceStudentsBySubject(reader.string(2), threshold)
+                        : manager.getLowAttendanceStudents(threshold);
+                return AttendanceJson.students(manager, students);
+            }
+            case "absence-alerts":
+                return AttendanceJson.absenceAlerts(manager.getAbsenceAlerts());
+            case "stats":
+                return AttendanceJson.stats(manager);
+            case "sample": {
+                reader.requireFields(4);
+                long seed = reader.fieldCount() > 4 ? Long.parseLong(reader.string(4)) : DEFAULT_SEED;
+                manager.loadSampleData(Integer.parseInt(reader.string(1)), Integer.parseInt(reader.string(2)),
+                                       Integer.parseInt(reader.string(3)), seed);
+                knownSubjects.addAll(manager.getAllSubjects());
+                return "{\"records\":" + manager.getRecordCount() + "}";
+            }
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command);
+        }
+    }
+
+    private List<AttendanceRecord> attendance(CsvReader reader) {
+        reader.requireFields(3);
+        String kind = reader.string(1);
+        String value = reader.string(2);
+        boolean ranged = reader.fieldCount() > 3;
+        if (ranged) {
+            reader.requireFields(5);
+        }
+        LocalDate from = ranged ? LocalDate.ofEpochDay(reader.epochDay(3)) : null;
+        LocalDate to = ranged ? LocalDate.ofEpochDay(reader.epochDay(4)) : null;
+        switch (kind) {
+            case "student":
+                return ranged ? manager.getAttendanceByStudent(value, from, to) : manager.getAttendanceByStudent(value);
+            case "subject":
+                return ranged ? manager.getAttendanceBySubject(value, from, to) : manager.getAttendanceBySubject(value);
+            case "date":
+                if (ranged) {
+                    throw new IllegalArgumentException("A date query takes no from and to");
+                }
+                return manager.getAttendanceByDate(LocalDate.ofEpochDay(reader.epochDay(2)));
+            default:
+                throw new IllegalArgumentException("Expected student, subject or date but found " + kind);
+        }
+    }
+
+    private void result(long line, String result) throws IOException {
+        out.write("{\"line\":");
+        out.write(Long.toString(line));
+        out.write(",\"result\":");
+        out.write(result);
+        out.write("}\n");
+    }
+
+    private void error(long line, String message) throws IOException {
+        errorCount++;
+        StringBuilder json = new StringBuilder(128);
+        json.append("{\"line\":").append(line).append(",\"error\":");
+        AttendanceJson.appendString(json, message);
+        out.append(json).append("}\n");
+    }
+
+    private static List<String> list(CsvReader reader, int field) {
+        if (reader.fieldCount() <= field) {
+            return Collections.emptyList();
+        }
+        List<String> values = new ArrayList<>();
+        for (String item : reader.string(field).split(",")) {
+            if (!item.trim().isEmpty()) {
+                values.add(item.trim());
+            }
+        }
+        return values;
+    }
+
+    // java AttendanceBatch [commandFile|-] [dataDirectory]
+    // Reads standard input by default and keeps everything in memory unless a
+    // data directory is given, in which case the journal records every change
+    // and a snapshot is taken at the end. Results go to standard output and a
+    // summary to standard error; the exit status is 1 if any command failed.
+    public static void main(String[] args) throws IOException {
+        String input = args.length > 0 ? args[0] : "-";
+        AttendanceManager manager = new AttendanceManager();
+        AttendanceJournal journal = args.length > 1 ? AttendanceJournal.open(Paths.get(args[1]), manager) : null;
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+                                        OUTPUT_BUFFER_CHARS);
+        AttendanceBatch batch = new AttendanceBatch(manager, out);
+        boolean failed = false;
+        long startNanos = System.nanoTime();
+        try (CsvReader reader = input.equals("-") ? new CsvReader("stdin", Channels.newChannel(System.in))
+                                                  : new CsvReader(Paths.get(input))) {
+            batch.run(reader);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            failed = true;
+        } finally {
+            if (journal != null) {
+                journal.snapshot();
+                journal.close();
+            }
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.err.printf("%,d commands (%,d marks) in %.2f s: %,.0f commands/sec, %,d errors%n",
+                          batch.getCommandCount(), batch.getMarkCount(), seconds,
+                          batch.getCommandCount() / Math.max(seconds, 1e-9), batch.getErrorCount());
+        if (failed || batch.getErrorCount() > 0) {
+            System.exit(1);
+        }
+    }
+}
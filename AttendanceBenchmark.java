@@ -0,0 +1,422 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AttendanceBenchmark {
+    private static final int STUDENTS = 20_000;
+    private static final int SUBJECTS = 20;
+    private static final LocalDate TERM_START = LocalDate.of(2024, 1, 8);
+    private static final String[] STUDENT_IDS = new String[STUDENTS];
+    private static final String[] SUBJECT_NAMES = new String[SUBJECTS];
+    private static final LocalDate[] TERM_DATES = new LocalDate[120];
+    // Prime, so multiplying by it permutes the STUDENTS x SUBJECTS x TERM_DATES classes.
+    private static final long CLASS_PERMUTATION = 1_000_003L;
+
+    // Query suite scales: students and total records. "suite" runs the first
+    // two, "suite all" runs every one (the largest needs a heap of ~6 GB).
+    private static final int[] SUITE_STUDENTS = {1_000, 10_000, 100_000, 1_000_000};
+    private static final long[] SUITE_RECORDS = {100_000, 1_000_000, 10_000_000, 100_000_000};
+    private static final int SUITE_SUBJECTS = 20;
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long MEASURE_NANOS = 3_000_000_000L;
+    private static final int MIN_OPERATIONS = 5;
+    private static final int MAX_LATENCY_SAMPLES = 1 << 20;
+
+    private static volatile long sink;
+
+    static {
+        for (int i = 0; i < STUDENTS; i++) {
+            STUDENT_IDS[i] = String.format("S%05d", i);
+        }
+        for (int i = 0; i < SUBJECTS; i++) {
+            SUBJECT_NAMES[i] = "Subject " + i;
+        }
+        for (int i = 0; i < TERM_DATES.length; i++) {
+            TERM_DATES[i] = TERM_START.plusDays(i);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        String mode = args.length > 0 ? args[0] : "concurrent";
+        switch (mode) {
+            case "concurrent":
+                int marksPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 500_000;
+                runConcurrentMarking(marksPerThread, args.length > 2 ? Paths.get(args[2]) : null);
+                break;
+            case "suite":
+                if (args.length > 2) {
+                    runSuite(Integer.parseInt(args[1]), Long.parseLong(args[2]));
+                } else {
+                    int scales = args.length > 1 && args[1].equals("all") ? SUITE_STUDENTS.length : 2;
+                    for (int i = 0; i < scales; i++) {
+                        runSuite(SUITE_STUDENTS[i], SUITE_RECORDS[i]);
+                    }
+                }
+                break;
+            case "server":
+                int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+                int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+                runServerLoad(clients, seconds);
+                break;
+            default:
+                System.out.println("Usage: java AttendanceBenchmark concurrent [marksPerThread [dataDirectory]]");
+                System.out.println("       java AttendanceBenchmark suite [all | students records]");
+                System.out.println("       java AttendanceBenchmark server [clients] [seconds]");
+        }
+    }
+
+    // Marks attendance from 1, 2, 4, ... threads (up to twice the core count)
+    // while a reader thread keeps generating reports, and checks that no mark
+    // is lost. Marking the same class twice overwrites the first mark, so
+    // every mark goes to a distinct (student, subject, date), spread over the
+    // term by a fixed permutation. Given a directory, each run also journals
+    // to a fresh subdirectory of it, so group commits and snapshots are timed
+    // too; the slowest mark shows whether a writer waited on either.
+    private static void runConcurrentMarking(int marksPerThread, Path directory)
+            throws InterruptedException, IOException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        long classes = (long) STUDENTS * SUBJECTS * TERM_DATES.length;
+        if ((long) marksPerThread * Math.max(2, cores * 2) > classes) {
+            throw new IllegalArgumentException("At most " + classes / Math.max(2, cores * 2)
+                    + " marks per thread fit in the term on this machine");
+        }
+        System.out.println("Concurrent marking, " + marksPerThread + " marks per thread, " + cores + " cores"
+                           + (directory == null ? "" : ", journal in " + directory));
+        System.out.println("threads |   marks/sec | p99 mark us | max mark ms | reports while marking");
+
+        for (int threads = 1; threads <= Math.max(2, cores * 2); threads *= 2) {
+            AttendanceManager manager = newManager();
+            Path runDirectory = null;
+            AttendanceJournal journal = null;
+            if (directory != null) {
+                Files.createDirectories(directory);
+                runDirectory = Files.createTempDirectory(directory, "concurrent-" + threads + "-");
+                journal = AttendanceJournal.open(runDirectory, manager);
+            }
+            manager.resetMetrics();
+            AtomicBoolean marking = new AtomicBoolean(true);
+            AtomicLong reports = new AtomicLong();
+
+            Thread reader = new Thread(() -> {
+                Random random = new Random(7);
+                while (marking.get()) {
+                    String studentId = STUDENT_IDS[random.nextInt(STUDENTS)];
+                    manager.calculateAttendancePercentage(studentId);
+                    manager.calculateAttendancePercentageBySubject(studentId);
+                    manager.getAttendanceByStudent(studentId);
+                    manager.getLowAttendanceStudents(75);
+                    reports.incrementAndGet();
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int seed = t;
+                final int threadCount = threads;
+                Thread writer = new Thread(() -> {
+                    Random random = new Random(seed);
+                    awaitQuietly(start);
+                    for (int i = 0; i < marksPerThread; i++) {
+                        long key = ((long) i * threadCount + seed) * CLASS_PERMUTATION % classes;
+                        manager.markAttendance(STUDENT_IDS[(int) (key % STUDENTS)],
+                                               TERM_DATES[(int) (key / STUDENTS / SUBJECTS)],
+                                               random.nextInt(100) < 75,
+                                               SUBJECT_NAMES[(int) (key / STUDENTS % SUBJECTS)]);
+                    }
+                });
+                writers.add(writer);
+                writer.start();
+            }
+
+            long startNanos = System.nanoTime();
+            start.countDown();
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            long elapsed = System.nanoTime() - startNanos;
+            marking.set(false);
+            reader.join();
+            if (journal != null) {
+                journal.close();
+                deleteDirectory(runDirectory);
+            }
+
+            long expected = (long) threads * marksPerThread;
+            long counted = 0;
+            for (Student student : manager.getAllStudents()) {
+                counted += manager.getAttendanceByStudent(student.getStudentId()).size();
+            }
+            if (counted != expected) {
+                throw new IllegalStateException("Expected " + expected + " marks but found " + counted);
+            }
+
+            LatencyHistogram latency = manager.getMetrics().getLatency(AttendanceMetrics.Operation.MARK_ATTENDANCE);
+            System.out.printf("%7d | %11.0f | %11.1f | %11.1f | %d%n", threads, expected * 1_000_000_000.0 / elapsed,
+                              latency.getP99Micros(), latency.getMaxMicros() / 1000, reports.get());
+        }
+    }
+
+    // Times every AttendanceManager query path, plus markAttendance, on a
+    // dataset generated by loadSampleData. Each operation is warmed up, then
+    // run for a fixed time; arguments are drawn at random from the dataset.
+    private static void runSuite(int students, long records) {
+        int days = (int) Math.max(1, records / ((long) students * SUITE_SUBJECTS));
+        AttendanceManager manager = new AttendanceManager();
+        long startNanos = System.nanoTime();
+        manager.loadSampleData(students, SUITE_SUBJECTS, days, 42);
+        long loadNanos = System.nanoTime() - startNanos;
+
+        List<Student> all = manager.getAllStudents();
+        String[] studentIds = new String[all.size()];
+        for (int i = 0; i < studentIds.length; i++) {
+            studentIds[i] = all.get(i).getStudentId();
+        }
+        String[] subjects = manager.getAllSubjects().toArray(new String[0]);
+        LocalDate lastDay = LocalDate.now();
+        LocalDate[] dates = new LocalDate[days];
+        for (int i = 0; i < days; i++) {
+            dates[i] = lastDay.minusDays(i);
+        }
+
+        System.out.printf("%nSuite: %,d students, %d subjects, %d days, %,d records (loaded in %.1f s)%n",
+                          students, SUITE_SUBJECTS, days, (long) students * SUITE_SUBJECTS * days,
+                          loadNanos / 1e9);
+        System.out.println("operation                                |       ops/s |   p50 us |   p99 us |   max us |    bytes/op");
+
+        // The index paths with the record cache off, then repeated views of
+        // one student, date and subject through it.
+        manager.getRecordCache().setCapacity(0);
+        measure("getAttendanceByStudent", random ->
+                manager.getAttendanceByStudent(studentIds[random.nextInt(studentIds.length)]).size());
+        measure("getAttendanceByStudent(from, to)", random ->
+                manager.getAttendanceByStudent(studentIds[random.nextInt(studentIds.length)],
+                                               dates[days - 1], dates[days / 2]).size());
+        measure("getAttendanceByDate", random ->
+                manager.getAttendanceByDate(dates[random.nextInt(days)]).size());
+        measure("getAttendanceBySubject", random ->
+                manager.getAttendanceBySubject(subjects[random.nextInt(subjects.length)]).size());
+        measure("getAttendanceBySubject(from, to)", random ->
+                manager.getAttendanceBySubject(subjects[random.nextInt(subjects.length)],
+                                               dates[0], dates[0]).size());
+        manager.getRecordCache().setCapacity(RecordCache.DEFAULT_CAPACITY);
+        measure("getAttendanceByStudent, repeated", random -> manager.getAttendanceByStudent(studentIds[0]).size());
+        measure("getAttendanceByDate, repeated", random -> manager.getAttendanceByDate(dates[0]).size());
+        measure("getAttendanceBySubject, repeated", random -> manager.getAttendanceBySubject(subjects[0]).size());
+        measure("calculateAttendancePercentage", random ->
+                (long) manager.calculateAttendancePercentage(studentIds[random.nextInt(studentIds.length)]));
+        measure("calculateAttendancePercentageBySubject", random ->
+                manager.calculateAttendancePercentageBySubject(studentIds[random.nextInt(studentIds.length)]).size());
+        measure("getLowAttendanceStudents", random -> manager.getLowAttendanceStudents(75).size());
+        measure("getStudentsSortedByName", random -> manager.getStudentsSortedByName().size());
+
+        // Last, since it grows the dataset: marks for the following days, in date order.
+        int[] marked = new int[1];
+        measure("markAttendance", random -> {
+            int n = marked[0]++;
+            manager.markAttendance(studentIds[n % studentIds.length],
+                                   lastDay.plusDays(1 + n / (studentIds.length * subjects.length)),
+                                   random.nextInt(100) < 75,
+                                   subjects[n / studentIds.length % subjects.length]);
+            return n;
+        });
+    }
+
+    // Load generator for AttendanceServer: starts an in-memory server on a
+    // free port and has every client loop over keep-alive HTTP requests, one
+    // mark for every four student lookups, for the given time.
+    private static void runServerLoad(int clients, int seconds) throws IOException, InterruptedException {
+        int students = 10_000;
+        int days = 10;
+        AttendanceManager manager = new AttendanceManager();
+        manager.loadSampleData(students, SUITE_SUBJECTS, days, 42);
+        AttendanceServer server = new AttendanceServer(manager, null, 0,
+                                                       Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+        server.start();
+        // Otherwise HttpURLConnection keeps only five idle connections per host.
+        System.setProperty("http.maxConnections", String.valueOf(clients));
+
+        String base = "http://localhost:" + server.getPort();
+        LatencyHistogram reads = new LatencyHistogram("GET /student");
+        LatencyHistogram writes = new LatencyHistogram("POST /mark");
+        AtomicLong failures = new AtomicLong();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            final int seed = c;
+            Thread client = new Thread(() -> {
+                Random random = new Random(seed);
+                byte[] buffer = new byte[8192];
+                awaitQuietly(start);
+                while (running.get()) {
+                    String studentId = String.format("S%07d", 1 + random.nextInt(students));
+                    boolean write = random.nextInt(5) == 0;
+                    String mark = "student=" + studentId
+                            + "&subject=Subject+" + (1 + random.nextInt(SUITE_SUBJECTS))
+                            + "&date=" + LocalDate.now().minusDays(random.nextInt(days))
+                            + "&status=" + (random.nextInt(100) < 75 ? "present" : "absent");
+                    long startNanos = System.nanoTime();
+                    try {
+                        int status = write ? request(base + "/mark", mark, buffer)
+                                           : request(base + "/student?id=" + studentId, null, buffer);
+                        if (status != 200) {
+                            failures.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                    (write ? writes : reads).record(System.nanoTime() - startNanos);
+                }
+            });
+            client.setDaemon(true);
+            threads.add(client);
+            client.start();
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread client : threads) {
+            client.join();
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        server.stop(0);
+
+        System.out.printf("Server load: %d clients, %d s, %,d students, %,d records%n",
+                          clients, seconds, students, manager.getRecordCount());
+        System.out.println("request       |   requests |   req/s |  mean us |   p50 us |   p99 us |   max us");
+        for (LatencyHistogram latency : Arrays.asList(reads, writes)) {
+            System.out.printf("%-13s | %10d | %7.0f | %8.1f | %8.1f | %8.1f | %8.1f%n", latency.getName(),
+                              latency.getCount(), latency.getCount() * 1e9 / elapsed, latency.getMeanMicros(),
+                              latency.getP50Micros(), latency.getP99Micros(), latency.getMaxMicros());
+        }
+        System.out.println("Failed requests: " + failures.get());
+    }
+
+    // Sends a GET, or a form POST when body is given, and reads the response
+    // fully so the connection goes back to the keep-alive pool.
+    private static int request(String url, String body, byte[] buffer) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (body != null) {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) {
+                while (in.read(buffer) > 0) {
+                    // drain
+                }
+            }
+        }
+        return status;
+    }
+
+    private interface Operation {
+        long run(Random random);
+    }
+
+    private static void measure(String name, Operation operation) {
+        Random random = new Random(11);
+        long[] latencies = new long[MAX_LATENCY_SAMPLES];
+        runFor(operation, random, WARMUP_NANOS, latencies);
+
+        long allocatedBefore = allocatedBytes();
+        long startNanos = System.nanoTime();
+        int operations = runFor(operation, random, MEASURE_NANOS, latencies);
+        long elapsed = System.nanoTime() - startNanos;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        int samples = Math.min(operations, MAX_LATENCY_SAMPLES);
+        Arrays.sort(latencies, 0, samples);
+        System.out.printf("%-40s | %11.1f | %8.1f | %8.1f | %8.1f | %11s%n", name,
+                          operations * 1e9 / elapsed,
+                          latencies[samples / 2] / 1000.0,
+                          latencies[Math.min(samples - 1, (int) (samples * 0.99))] / 1000.0,
+                          latencies[samples - 1] / 1000.0,
+                          allocatedBefore < 0 ? "n/a" : String.format("%,d", allocated / operations));
+    }
+
+    // Runs the operation until the time is up (and at least MIN_OPERATIONS
+    // times), recording latencies into a ring of samples. Returns the count.
+    private static int runFor(Operation operation, Random random, long nanos, long[] latencies) {
+        long deadline = System.nanoTime() + nanos;
+        long result = 0;
+        int operations = 0;
+        long now;
+        do {
+            long start = System.nanoTime();
+            result += operation.run(random);
+            now = System.nanoTime();
+            latencies[operations & (MAX_LATENCY_SAMPLES - 1)] = now - start;
+            operations++;
+        } while (now < deadline || operations < MIN_OPERATIONS);
+        sink = result;
+        return operations;
+    }
+
+    // Bytes allocated so far by this thread, or -1 where the JVM cannot tell.
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+            if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+                return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static AttendanceManager newManager() {
+        AttendanceManager manager = new AttendanceManager();
+        for (int i = 0; i < STUDENTS; i++) {
+            manager.addStudent(new Student(STUDENT_IDS[i], "Student " + i, "student" + i + "@example.com",
+                                           "Dept " + (i % 8)));
+        }
+        for (String subject : SUBJECT_NAMES) {
+            manager.addSubject(subject);
+        }
+        return manager;
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.Arrays;
+
+public class AttendanceBitmap {
+    // Bit n of each bitmap belongs to the student with dictionary code n.
+    // Written by one writer at a time and read without locking.
+    private volatile long[] markedWords;
+    private volatile long[] presentWords;
+
+    public AttendanceBitmap() {
+        this.markedWords = new long[1];
+        this.presentWords = new long[1];
+    }
+
+    public void mark(int studentCode, boolean isPresent) {
+        int word = studentCode >> 6;
+        long[] marked = markedWords;
+        long[] present = presentWords;
+        if (word >= marked.length) {
+            int newLength = Math.max(word + 1, marked.length * 2);
+            present = Arrays.copyOf(present, newLength);
+            marked = Arrays.copyOf(marked, newLength);
+        }
+        long bit = 1L << studentCode;
+        if (isPresent) {
+            present[word] |= bit;
+        } else {
+            present[word] &= ~bit;
+        }
+        marked[word] |= bit;
+        // Volatile writes publish the updated words to readers.
+        presentWords = present;
+        markedWords = marked;
+    }
+
+    public boolean isMarked(int studentCode) {
+        int word = studentCode >> 6;
+        long[] marked = markedWords;
+        return word < marked.length && (marked[word] & (1L << studentCode)) != 0;
+    }
+
+    public boolean isPresent(int studentCode) {
+        int word = studentCode >> 6;
+        long[] present = presentWords;
+        return word < present.length && (present[word] & (1L << studentCode)) != 0;
+    }
+
+    public int getMarkedCount() {
+        return popCount(markedWords);
+    }
+
+    public int getPresentCount() {
+        return popCount(presentWords);
+    }
+
+    public void orMarkedInto(long[] target) {
+        orInto(target, markedWords);
+    }
+
+    public void orPresentInto(long[] target) {
+        orInto(target, presentWords);
+    }
+
+    public void andAbsentInto(long[] target) {
+        long[] marked = markedWords;
+        long[] present = presentWords;
+        int length = Math.min(marked.length, present.length);
+        for (int i = 0; i < target.length; i++) {
+            target[i] &= i < length ? marked[i] & ~present[i] : 0L;
+        }
+    }
+
+    public long estimateBytes() {
+        return 2L * Long.BYTES * markedWords.length;
+    }
+
+    public static int popCount(long[] words) {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    private static void orInto(long[] target, long[] words) {
+        int length = Math.min(target.length, words.length);
+        for (int i = 0; i < length; i++) {
+            target[i] |= words[i];
+        }
+    }
+}
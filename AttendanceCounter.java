@@ -0,0 +1,42 @@
+// Updated by one writer at a time and read without locking. totalCount is
+// always bumped before presentCount, so a reader never sees more present
+// marks than total marks.
+public class AttendanceCounter {
+    private volatile int presentCount;
+    private volatile int totalCount;
+
+    public void record(boolean isPresent) {
+        totalCount = totalCount + 1;
+        if (isPresent) {
+            presentCount = presentCount + 1;
+        }
+    }
+
+    // For a mark overwritten with the opposite status: the total stays the same.
+    public void changePresence(boolean isPresent) {
+        presentCount = presentCount + (isPresent ? 1 : -1);
+    }
+
+    // Counts restored from a snapshot, total first as in record().
+    public void add(int present, int total) {
+        totalCount = totalCount + total;
+        presentCount = presentCount + present;
+    }
+
+    public int getPresentCount() {
+        return presentCount;
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    public double getPercentage() {
+        int present = presentCount;
+        int total = totalCount;
+        if (total == 0) {
+            return 0.0;
+        }
+        return (present * 100.0) / total;
+    }
+}
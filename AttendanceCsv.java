@@ -0,0 +1,278 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+// Streaming CSV import and export for students, subjects and attendance.
+//
+// students.csv    studentId,name,email,department
+// subjects.csv    subject
+// attendance.csv  studentId,date,status,subject   (date yyyy-MM-dd, status Present/Absent)
+//
+// Files are read and written through NIO channels with fixed-size buffers,
+// so memory use does not depend on file size. Attendance rows are parsed
+// straight from the byte buffer: ids and subjects are resolved through a
+// small cache instead of allocating a String per field, and dates are
+// parsed from digits. Rows are validated and applied in batches; a bad row
+// stops the import with an IllegalArgumentException naming its line, after
+// the earlier batches have been applied.
+public class AttendanceCsv {
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final int BATCH_SIZE = 8192;
+
+    private static final String STUDENTS_HEADER = "studentId,name,email,department";
+    private static final String SUBJECTS_HEADER = "subject";
+    private static final String ATTENDANCE_HEADER = "studentId,date,status,subject";
+
+    private final AttendanceManager manager;
+
+    public AttendanceCsv(AttendanceManager manager) {
+        this.manager = manager;
+    }
+
+    public int importStudents(Path path) throws IOException {
+        int count = 0;
+        try (CsvReader reader = new CsvReader(path)) {
+            reader.skipHeader(STUDENTS_HEADER);
+            while (reader.next()) {
+                reader.requireFields(4);
+                Student student = new Student(reader.string(0), reader.string(1), reader.string(2), reader.string(3));
+                try {
+                    manager.addStudent(student);
+                } catch (IllegalArgumentException e) {
+                    throw reader.error(e.getMessage());
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int importSubjects(Path path) throws IOException {
+        int count = 0;
+        try (CsvReader reader = new CsvReader(path)) {
+            reader.skipHeader(SUBJECTS_HEADER);
+            while (reader.next()) {
+                reader.requireFields(1);
+                manager.addSubject(reader.string(0));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Returns the number of marks added or changed by the file.
+    public long importAttendance(Path path) throws IOException {
+        String[] studentIds = new String[BATCH_SIZE];
+        int[] epochDays = new int[BATCH_SIZE];
+        boolean[] present = new boolean[BATCH_SIZE];
+        String[] subjects = new String[BATCH_SIZE];
+        StringCache studentCache = new StringCache();
+        StringCache subjectCache = new StringCache();
+        Set<String> knownSubjects = new HashSet<>(manager.getAllSubjects());
+        long total = 0;
+        int batch = 0;
+
+        try (CsvReader reader = new CsvReader(path)) {
+            reader.skipHeader(ATTENDANCE_HEADER);
+            while (reader.next()) {
+                reader.requireFields(4);
+                String studentId = reader.cached(0, studentCache);
+                if (manager.getStudent(studentId) == null) {
+                    throw reader.error("Student not found: " + studentId);
+                }
+                String subject = reader.cached(3, subjectCache);
+                if (!knownSubjects.contains(subject)) {
+                    throw reader.error("Subject not found: " + subject);
+                }
+                studentIds[batch] = studentId;
+                epochDays[batch] = reader.epochDay(1);
+                present[batch] = reader.status(2);
+                subjects[batch] = subject;
+
+                if (++batch == BATCH_SIZE) {
+                    total += manager.importAttendance(studentIds, epochDays, present, subjects, batch);
+                    batch = 0;
+                }
+            }
+        }
+        if (batch > 0) {
+            total += manager.importAttendance(studentIds, epochDays, present, subjects, batch);
+        }
+        return total;
+    }
+
+    public int exportStudents(Path path) throws IOException {
+        int count = 0;
+        try (CsvWriter writer = new CsvWriter(path)) {
+            writer.line(STUDENTS_HEADER);
+            for (Student student : manager.getStudentsSortedByName()) {
+                writer.field(student.getStudentId()).comma().field(student.getName()).comma()
+                      .field(student.getEmail()).comma().field(student.getDepartment()).newline();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int exportSubjects(Path path) throws IOException {
+        int count = 0;
+        try (CsvWriter writer = new CsvWriter(path)) {
+            writer.line(SUBJECTS_HEADER);
+            for (String subject : manager.getAllSubjects()) {
+                writer.field(subject).newline();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public long exportAttendance(Path path) throws IOException {
+        long[] count = new long[1];
+        try (CsvWriter writer = new CsvWriter(path)) {
+            writer.line(ATTENDANCE_HEADER);
+            IOException[] failure = new IOException[1];
+            manager.forEachRecord((studentId, epochDay, isPresent, subject) -> {
+                if (failure[0] != null) {
+                    return;
+                }
+                try {
+                    writer.cachedField(studentId).comma().date(epochDay).comma()
+                          .status(isPresent).comma().cachedField(subject).newline();
+                    count[0]++;
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        return count[0];
+    }
+
+    private static final class CsvWriter implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final IdentityHashMap<String, byte[]> encoded = new IdentityHashMap<>();
+        private int lastEpochDay = Integer.MIN_VALUE;
+        private final byte[] lastDate = new byte[10];
+
+        CsvWriter(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                            StandardOpenOption.TRUNCATE_EXISTING);
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        }
+
+        CsvWriter line(String text) throws IOException {
+            return bytes(text.getBytes(StandardCharsets.UTF_8)).newline();
+        }
+
+        CsvWriter field(String value) throws IOException {
+            return bytes(escape(value));
+        }
+
+        // For values that repeat on many rows (ids, subjects): encoded once per String instance.
+        CsvWriter cachedField(String value) throws IOException {
+            byte[] bytes = encoded.get(value);
+            if (bytes == null) {
+                if (encoded.size() >= StringCache.CAPACITY) {
+                    encoded.clear();
+                }
+                bytes = escape(value);
+                encoded.put(value, bytes);
+            }
+            return bytes(bytes);
+        }
+
+        CsvWriter date(int epochDay) throws IOException {
+            if (epochDay != lastEpochDay) {
+                LocalDate date = LocalDate.ofEpochDay(epochDay);
+                writeDigits(lastDate, 0, date.getYear(), 4);
+                lastDate[4] = '-';
+                writeDigits(lastDate, 5, date.getMonthValue(), 2);
+                lastDate[7] = '-';
+                writeDigits(lastDate, 8, date.getDayOfMonth(), 2);
+                lastEpochDay = epochDay;
+            }
+            return bytes(lastDate);
+        }
+
+        CsvWriter status(boolean isPresent) throws IOException {
+            return bytes(isPresent ? PRESENT : ABSENT);
+        }
+
+        CsvWriter comma() throws IOException {
+            ensure(1);
+            buffer.put((byte) ',');
+            return this;
+        }
+
+        CsvWriter newline() throws IOException {
+            ensure(1);
+            buffer.put((byte) '\n');
+            return this;
+        }
+
+        private CsvWriter bytes(byte[] value) throws IOException {
+            if (value.length > buffer.capacity()) {
+                flush();
+                channel.write(ByteBuffer.wrap(value));
+                return this;
+            }
+            ensure(value.length);
+            buffer.put(value);
+            return this;
+        }
+
+        private void ensure(int count) throws IOException {
+            if (buffer.remaining() < count) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private static byte[] escape(String value) {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            String text = quote ? '"' + value.replace("\"", "\"\"") + '"' : value;
+            return text.getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static void writeDigits(byte[] target, int offset, int value, int width) {
+            for (int i = offset + width - 1; i >= offset; i--) {
+                target[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static final byte[] PRESENT = "Present".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ABSENT = "Absent".getBytes(StandardCharsets.US_ASCII);
+}
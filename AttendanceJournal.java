@@ -0,0 +1,632 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+// Entries are framed by writers while they hold AttendanceManager's
+// monitor, so the log follows the order changes were applied, and are only
+// added to an in-memory commit group there. Writing, fsync and snapshots
+// happen on the committer thread (or the caller of commit, snapshot or
+// archive) without that monitor: a snapshot only holds it to seal new rows
+// and copy the state into memory.
+//
+// Locks are taken in the order snapshotLock, fileLock, the manager's
+// monitor, then the journal's own monitor, which guards the commit group.
+public class AttendanceJournal implements Closeable {
+    private static final String SNAPSHOT_FILE = "attendance.snapshot";
+    private static final String LOG_PREFIX = "attendance-";
+    private static final String LOG_SUFFIX = ".wal";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String ARCHIVE_PREFIX = "archive-";
+    private static final int SNAPSHOT_MAGIC = 0x41545353;
+    private static final int SNAPSHOT_VERSION = 5;
+    // Version 1 holds the marks inline, before segment files; 2 predates
+    // overwritten marks, 3 the archive and 4 the saved aggregates. All are
+    // still read, and a snapshot in the current version replaces them as
+    // soon as they are.
+    private static final int OLDEST_SNAPSHOT_VERSION = 1;
+
+    private static final byte OP_ADD_STUDENT = 1;
+    private static final byte OP_ADD_SUBJECT = 2;
+    private static final byte OP_MARK_ATTENDANCE = 3;
+    private static final byte OP_MARK_CLASS_ATTENDANCE = 4;
+
+    public static final int DEFAULT_GROUP_COMMIT_SIZE = 512;
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 100_000;
+    private static final int MAX_PENDING_BYTES = 64 * 1024;
+
+    private final Path directory;
+    private final AttendanceManager manager;
+    private final int groupCommitSize;
+    private final int snapshotInterval;
+
+    // snapshotLock is held for a whole snapshot or archive; fileLock while the
+    // log is written, synced or replaced.
+    private final Object snapshotLock = new Object();
+    private final Object fileLock = new Object();
+    private long generation;
+    private FileChannel log;
+    private int lastSnapshotBytes = 1 << 16;
+
+    // Used only under the manager's monitor, or during recovery.
+    private final ByteArrayOutputStream entry;
+    private final DataOutputStream entryOut;
+    private final CRC32 crc;
+
+    // The commit group being filled and the one last written, swapped each
+    // time a group is written. Guarded by this journal's monitor, as are the
+    // counters: entries are numbered as they are logged, and commit() waits
+    // for durableEntries to pass the count it saw.
+    private ByteArrayOutputStream pending;
+    private ByteArrayOutputStream spare;
+    private int pendingEntries;
+    private long entriesSinceSnapshot;
+    private long loggedEntries;
+    private long durableEntries;
+    private long commitRequested;
+    private IOException failure;
+    private Thread committer;
+    private boolean closing;
+
+    private int restoredVersion = SNAPSHOT_VERSION;
+    private long recoveredEntries;
+    private long recoveryNanos;
+
+    private AttendanceJournal(Path directory, AttendanceManager manager, int groupCommitSize, int snapshotInterval) {
+        this.directory = directory;
+        this.manager = manager;
+        this.groupCommitSize = groupCommitSize;
+        this.snapshotInterval = snapshotInterval;
+        this.entry = new ByteArrayOutputStream(256);
+        this.entryOut = new DataOutputStream(entry);
+        this.pending = new ByteArrayOutputStream(MAX_PENDING_BYTES);
+        this.spare = new ByteArrayOutputStream(MAX_PENDING_BYTES);
+        this.crc = new CRC32();
+    }
+
+    public static AttendanceJournal open(Path directory, AttendanceManager manager) throws IOException {
+        return open(directory, manager, DEFAULT_GROUP_COMMIT_SIZE, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    // Restores manager from the latest snapshot plus the log tail written after
+    // it, then attaches the journal so every later change is logged.
+    public static AttendanceJournal open(Path directory, AttendanceManager manager,
+                                         int groupCommitSize, int snapshotInterval) throws IOException {
+        Files.createDirectories(directory);
+        AttendanceJournal journal = new AttendanceJournal(directory, manager, groupCommitSize, snapshotInterval);
+        journal.recover();
+        manager.setJournal(journal);
+        journal.startCommitter();
+        manager.startRowIndexing();
+        return journal;
+    }
+
+    public long getRecoveredEntries() {
+        return recoveredEntries;
+    }
+
+    public long getRecoveryNanos() {
+        return recoveryNanos;
+    }
+
+    public double getRecoveryRate() {
+        return recoveryNanos == 0 ? 0.0 : recoveredEntries * 1_000_000_000.0 / recoveryNanos;
+    }
+
+    public void logAddStudent(Student student) {
+        try {
+            entryOut.writeByte(OP_ADD_STUDENT);
+            entryOut.writeUTF(student.getStudentId());
+            entryOut.writeUTF(student.getName());
+            entryOut.writeUTF(student.getEmail());
+            entryOut.writeUTF(student.getDepartment());
+            endEntry();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void logAddSubject(String subject) {
+        try {
+            entryOut.writeByte(OP_ADD_SUBJECT);
+            entryOut.writeUTF(subject);
+            endEntry();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void logMarkAttendance(String studentId, LocalDate date, boolean isPresent, String subject) {
+        try {
+            entryOut.writeByte(OP_MARK_ATTENDANCE);
+            entryOut.writeUTF(studentId);
+            entryOut.writeInt((int) date.toEpochDay());
+            entryOut.writeBoolean(isPresent);
+            entryOut.writeUTF(subject);
+            endEntry();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The framed entry logMarkAttendance would add, built with no shared
+    // state so writers can encode it before taking the manager's lock; pass
+    // it to logEntry once the mark is applied.
+    public byte[] encodeMarkAttendance(String studentId, int epochDay, boolean isPresent, String subject) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(payload);
+        try {
+            out.writeByte(OP_MARK_ATTENDANCE);
+            out.writeUTF(studentId);
+            out.writeInt(epochDay);
+            out.writeBoolean(isPresent);
+            out.writeUTF(subject);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return frame(payload.toByteArray(), new CRC32());
+    }
+
+    // One entry for a whole class roll: the first presentCount students are
+    // present, the rest absent.
+    public void logMarkClassAttendance(String subject, LocalDate date, String[] studentIds, int presentCount) {
+        try {
+            entryOut.writeByte(OP_MARK_CLASS_ATTENDANCE);
+            entryOut.writeUTF(subject);
+            entryOut.writeInt((int) date.toEpochDay());
+            entryOut.writeInt(studentIds.length);
+            entryOut.writeInt(presentCount);
+            for (String studentId : studentIds) {
+                entryOut.writeUTF(studentId);
+            }
+            endEntry();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Adds a framed entry to the commit group, waking the committer once the
+    // group is full or a snapshot is due. Called holding the manager's lock.
+    public void logEntry(byte[] framed) {
+        synchronized (this) {
+            if (failure != null) {
+                throw new UncheckedIOException(new IOException("Journal write failed", failure));
+            }
+            pending.write(framed, 0, framed.length);
+            pendingEntries++;
+            loggedEntries++;
+            entriesSinceSnapshot++;
+            if (pendingEntries == groupCommitSize || pending.size() >= MAX_PENDING_BYTES
+                    || entriesSinceSnapshot == snapshotInterval) {
+                notifyAll();
+            }
+        }
+    }
+
+    // Group commit: returns once every entry logged before the call is
+    // written and fsynced. Callers that arrive together share one fsync.
+    public void commit() throws IOException {
+        synchronized (this) {
+            if (committer != null) {
+                long target = loggedEntries;
+                if (commitRequested < target) {
+                    commitRequested = target;
+                    notifyAll();
+                }
+                while (durableEntries < target && failure == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for the journal");
+                    }
+                }
+                if (durableEntries < target) {
+                    throw new IOException("Journal write failed", failure);
+                }
+                return;
+            }
+        }
+        writePending();
+    }
+
+    // Seals new marks into a segment file, writes the remaining state to a new
+    // snapshot and starts a fresh log, so the next restart only maps the
+    // segments and replays entries made after this point.
+    public void snapshot() throws IOException {
+        snapshot(null);
+    }
+
+    // Moves marks dated before cutoff into archive-YYYY-MM-NNNNNNNN.seg
+    // files, one per month, then snapshots so a restart finds them. Returns
+    // the number of marks archived.
+    public int archive(LocalDate cutoff) throws IOException {
+        return snapshot(cutoff);
+    }
+
+    // Holds the manager's lock only to archive, seal the new rows, copy the
+    // state into memory and switch to the next log. The log being replaced
+    // gets the rest of its commit group before the next log is written, so
+    // a crash at any point replays both in order over the old snapshot.
+    private int snapshot(LocalDate archiveCutoff) throws IOException {
+        synchronized (snapshotLock) {
+            long nextGeneration;
+            int archived = 0;
+            SnapshotImage image = new SnapshotImage(lastSnapshotBytes + (lastSnapshotBytes >> 3));
+            FileChannel previous;
+            synchronized (fileLock) {
+                ByteArrayOutputStream tail;
+                long tailEntries;
+                synchronized (manager) {
+                    nextGeneration = generation + 1;
+                    String name = String.format("%08d", nextGeneration);
+                    Path segment = directory.resolve(LOG_PREFIX + name + SEGMENT_SUFFIX);
+                    if (archiveCutoff != null) {
+                        archived = manager.archiveRecords(archiveCutoff, segment,
+                                month -> directory.resolve(ARCHIVE_PREFIX + month + "-" + name + SEGMENT_SUFFIX));
+                    }
+                    manager.sealRecords(segment);
+                    DataOutputStream out = new DataOutputStream(image);
+                    out.writeInt(SNAPSHOT_MAGIC);
+                    out.writeInt(SNAPSHOT_VERSION);
+                    out.writeLong(nextGeneration);
+                    manager.writeSnapshot(out);
+                    out.flush();
+
+                    previous = log;
+                    log = openLog(nextGeneration);
+                    generation = nextGeneration;
+                    synchronized (this) {
+                        tail = pending;
+                        tailEntries = loggedEntries;
+                        pending = spare;
+                        pendingEntries = 0;
+                        entriesSinceSnapshot = 0;
+                    }
+                }
+                write(previous, tail);
+                groupWritten(tail, tailEntries);
+            }
+
+            lastSnapshotBytes = image.size;
+            CRC32 checksum = new CRC32();
+            checksum.update(image.bytes, 0, image.size);
+            for (AttendanceSegment segment : manager.getSegments()) {
+                AttendanceSegment.sync(segment.getPath());
+            }
+            for (Path partition : manager.getArchivePaths()) {
+                AttendanceSegment.sync(partition);
+            }
+            Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+            try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+                file.write(image.bytes, 0, image.size);
+                file.write(ByteBuffer.allocate(Long.BYTES).putLong(checksum.getValue()).array());
+                file.getFD().sync();
+            }
+            Files.move(temp, directory.resolve(SNAPSHOT_FILE),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            previous.close();
+            Files.deleteIfExists(logPath(nextGeneration - 1));
+            deleteUnusedSegments();
+            return archived;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        Thread stopping;
+        synchronized (this) {
+            closing = true;
+            stopping = committer;
+            committer = null;
+            notifyAll();
+        }
+        if (stopping != null) {
+            try {
+                stopping.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for the journal");
+            }
+        }
+        synchronized (fileLock) {
+            try {
+                writePending();
+            } finally {
+                log.close();
+            }
+        }
+    }
+
+    private void startCommitter() {
+        Thread thread = new Thread(this::runCommitter, "attendance-journal-committer");
+        thread.setDaemon(true);
+        synchronized (this) {
+            committer = thread;
+        }
+        thread.start();
+    }
+
+    // Writes each commit group once it is full or a commit is waiting, and
+    // snapshots once snapshotInterval entries have been logged. A failure is
+    // kept and reported to every later commit and log call.
+    private void runCommitter() {
+        try {
+            while (true) {
+                boolean snapshotDue;
+                synchronized (this) {
+                    while (!closing && pendingEntries < groupCommitSize && pending.size() < MAX_PENDING_BYTES
+                            && commitRequested <= durableEntries && entriesSinceSnapshot < snapshotInterval) {
+                        wait();
+                    }
+                    if (closing) {
+                        return;
+                    }
+                    snapshotDue = entriesSinceSnapshot >= snapshotInterval;
+                }
+                if (snapshotDue) {
+                    snapshot();
+                } else {
+                    writePending();
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                failure = e;
+                notifyAll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Writes and fsyncs the commit group; writers fill the other one meanwhile.
+    private void writePending() throws IOException {
+        synchronized (fileLock) {
+            ByteArrayOutputStream group;
+            long groupEntries;
+            synchronized (this) {
+                if (pendingEntries == 0) {
+                    return;
+                }
+                group = pending;
+                groupEntries = loggedEntries;
+                pending = spare;
+                pendingEntries = 0;
+            }
+            write(log, group);
+            groupWritten(group, groupEntries);
+        }
+    }
+
+    // The snapshot as it is copied out under the manager's lock. Unlike
+    // ByteArrayOutputStream, no write takes a monitor, which for the single
+    // bytes of every writeInt was most of the time the lock was held.
+    private static final class SnapshotImage extends OutputStream {
+        byte[] bytes;
+        int size;
+
+        SnapshotImage(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        @Override
+        public void write(int b) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(size * 2, size + length));
+            }
+            System.arraycopy(b, offset, bytes, size, length);
+            size += length;
+        }
+    }
+
+    private static void write(FileChannel channel, ByteArrayOutputStream group) throws IOException {
+        if (group.size() == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(group.toByteArray());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    private synchronized void groupWritten(ByteArrayOutputStream group, long groupEntries) {
+        group.reset();
+        spare = group;
+        durableEntries = Math.max(durableEntries, groupEntries);
+        notifyAll();
+    }
+
+    private void endEntry() {
+        byte[] payload = entry.toByteArray();
+        entry.reset();
+        logEntry(frame(payload, crc));
+    }
+
+    // [length][payload][crc], so a torn tail is detected on replay.
+    private static byte[] frame(byte[] payload, CRC32 crc) {
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        return ByteBuffer.allocate(Integer.BYTES + payload.length + Integer.BYTES)
+                .putInt(payload.length).put(payload).putInt((int) crc.getValue()).array();
+    }
+
+    private void recover() throws IOException {
+        long start = System.nanoTime();
+        long firstGeneration = 0;
+
+        Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshotPath)) {
+            firstGeneration = readSnapshot(snapshotPath);
+        }
+        deleteUnusedSegments();
+
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, LOG_PREFIX + "*" + LOG_SUFFIX)) {
+            for (Path path : logs) {
+                String name = path.getFileName().toString();
+                generations.add(Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length())));
+            }
+        }
+        generations.sort(null);
+
+        generation = firstGeneration;
+        for (long logGeneration : generations) {
+            if (logGeneration < firstGeneration) {
+                Files.delete(logPath(logGeneration));
+                continue;
+            }
+            replayLog(logPath(logGeneration));
+            generation = logGeneration;
+        }
+
+        log = openLog(generation);
+        if (restoredVersion < SNAPSHOT_VERSION) {
+            snapshot();
+        }
+        recoveryNanos = System.nanoTime() - start;
+    }
+
+    // Read whole, so the checksum covers the body in one pass instead of a
+    // byte at a time under every readInt.
+    private long readSnapshot(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        int length = bytes.length - Long.BYTES;
+        if (length < 0) {
+            throw new IOException("Corrupt snapshot file: " + path);
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes, 0, length);
+        if (ByteBuffer.wrap(bytes, length, Long.BYTES).getLong() != checksum.getValue()) {
+            throw new IOException("Corrupt snapshot file: " + path);
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, length))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Unrecognised snapshot file: " + path);
+            }
+            int version = in.readInt();
+            if (version < OLDEST_SNAPSHOT_VERSION || version > SNAPSHOT_VERSION) {
+                throw new IOException("Unrecognised snapshot file: " + path);
+            }
+            long nextGeneration = in.readLong();
+            restoredVersion = version;
+            recoveredEntries += version == 1 ? manager.readLegacySnapshot(in)
+                    : manager.readSnapshot(in, directory, version >= 3, version >= 4, version >= 5);
+            return nextGeneration;
+        }
+    }
+
+    private void replayLog(Path path) throws IOException {
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            byte[] payload = new byte[256];
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                    if (length <= 0) {
+                        break;
+                    }
+                    if (length > payload.length) {
+                        payload = new byte[Math.max(length, payload.length * 2)];
+                    }
+                    in.readFully(payload, 0, length);
+                    crc.reset();
+                    crc.update(payload, 0, length);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(payload, 0, length)));
+                validLength += Integer.BYTES + length + Integer.BYTES;
+                recoveredEntries++;
+            }
+        }
+
+        // Drop a torn tail left by a crash mid-write so new entries follow valid ones.
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            if (channel.size() > validLength) {
+                channel.truncate(validLength);
+                channel.force(true);
+            }
+        }
+    }
+
+    private void apply(DataInputStream in) throws IOException {
+        byte op = in.readByte();
+        switch (op) {
+            case OP_ADD_STUDENT:
+                manager.addStudent(new Student(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF()));
+                break;
+            case OP_ADD_SUBJECT:
+                manager.addSubject(in.readUTF());
+                break;
+            case OP_MARK_ATTENDANCE:
+                String studentId = in.readUTF();
+                LocalDate date = LocalDate.ofEpochDay(in.readInt());
+                boolean isPresent = in.readBoolean();
+                manager.markAttendance(studentId, date, isPresent, in.readUTF());
+                break;
+            case OP_MARK_CLASS_ATTENDANCE:
+                String classSubject = in.readUTF();
+                LocalDate classDate = LocalDate.ofEpochDay(in.readInt());
+                int count = in.readInt();
+                int presentCount = in.readInt();
+                List<String> present = new ArrayList<>(presentCount);
+                List<String> absent = new ArrayList<>(count - presentCount);
+                for (int i = 0; i < count; i++) {
+                    (i < presentCount ? present : absent).add(in.readUTF());
+                }
+                manager.markClassAttendance(classSubject, classDate, present, absent);
+                break;
+            default:
+                throw new IOException("Unknown journal entry type: " + op);
+        }
+    }
+
+    private void deleteUnusedSegments() throws IOException {
+        Set<Path> inUse = new HashSet<>();
+        for (AttendanceSegment segment : manager.getSegments()) {
+            inUse.add(segment.getPath().getFileName());
+        }
+        for (Path partition : manager.getArchivePaths()) {
+            inUse.add(partition.getFileName());
+        }
+        String pattern = "{" + LOG_PREFIX + "," + ARCHIVE_PREFIX + "}*" + SEGMENT_SUFFIX;
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, pattern)) {
+            for (Path path : segments) {
+                if (!inUse.contains(path.getFileName())) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private FileChannel openLog(long logGeneration) throws IOException {
+        return FileChannel.open(logPath(logGeneration),
+                                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private Path logPath(long logGeneration) {
+        return directory.resolve(LOG_PREFIX + String.format("%08d", logGeneration) + LOG_SUFFIX);
+    }
+}
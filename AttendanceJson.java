@@ -0,0 +1,169 @@
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// JSON rendering shared by server and batch mode, so both answer in the
+// same shapes. Percentages are rounded to two decimals.
+public class AttendanceJson {
+    private AttendanceJson() {
+    }
+
+    // The student with overall and per-subject attendance.
+    public static String student(AttendanceManager manager, Student student) {
+        StringBuilder json = new StringBuilder(256);
+        appendStudent(json, manager, student);
+        json.setLength(json.length() - 1);
+        json.append(",\"subjects\":{");
+        Map<String, Double> subjects = new TreeMap<>(
+                manager.calculateAttendancePercentageBySubject(student.getStudentId()));
+        String separator = "";
+        for (Map.Entry<String, Double> entry : subjects.entrySet()) {
+            json.append(separator);
+            appendString(json, entry.getKey());
+            json.append(':').append(round(entry.getValue()));
+            separator = ",";
+        }
+        return json.append("}}").toString();
+    }
+
+    // One page of a name-ordered listing.
+    public static String studentsPage(AttendanceManager manager, int offset, List<Student> students) {
+        StringBuilder json = new StringBuilder(64 + students.size() * 160);
+        json.append("{\"offset\":").append(offset).append(',');
+        appendStudents(json, manager, students);
+        return json.append('}').toString();
+    }
+
+    public static String students(AttendanceManager manager, List<Student> students) {
+        StringBuilder json = new StringBuilder(64 + students.size() * 160);
+        json.append('{');
+        appendStudents(json, manager, students);
+        return json.append('}').toString();
+    }
+
+    private static void appendStudents(StringBuilder json, AttendanceManager manager, List<Student> students) {
+        json.append("\"count\":").append(students.size()).append(",\"students\":[");
+        String separator = "";
+        for (Student student : students) {
+            json.append(separator);
+            appendStudent(json, manager, student);
+            separator = ",";
+        }
+        json.append(']');
+    }
+
+    public static String records(List<AttendanceRecord> records) {
+        StringBuilder json = new StringBuilder(64 + records.size() * 80);
+        json.append("{\"count\":").append(records.size()).append(",\"records\":[");
+        String separator = "";
+        for (AttendanceRecord record : records) {
+            json.append(separator).append("{\"studentId\":");
+            appendString(json, record.getStudentId());
+            json.append(",\"date\":\"").append(record.getDate()).append("\",\"present\":").append(record.isPresent())
+                .append(",\"subject\":");
+            appendString(json, record.getSubject());
+            json.append('}');
+            separator = ",";
+        }
+        return json.append("]}").toString();
+    }
+
+    public static String absenceAlerts(List<AbsenceAlert> alerts) {
+        StringBuilder json = new StringBuilder(64 + alerts.size() * 120);
+        json.append("{\"count\":").append(alerts.size()).append(",\"alerts\":[");
+        String separator = "";
+        for (AbsenceAlert alert : alerts) {
+            json.append(separator).append("{\"type\":\"").append(alert.getType()).append("\",\"studentId\":");
+            appendString(json, alert.getStudent().getStudentId());
+            json.append(",\"subject\":");
+            appendString(json, alert.getSubject());
+            json.append(",\"absences\":").append(alert.getAbsences());
+            if (alert.getWeekday() != null) {
+                json.append(",\"weekday\":\"").append(alert.getWeekday()).append('"');
+            }
+            json.append('}');
+            separator = ",";
+        }
+        return json.append("]}").toString();
+    }
+
+    public static String stats(AttendanceManager manager) {
+        StringBuilder json = new StringBuilder(2048);
+        json.append("{\"students\":").append(manager.getStudentCount())
+            .append(",\"subjects\":").append(manager.getSubjectCount())
+            .append(",\"departments\":").append(manager.getDepartmentCount())
+            .append(",\"records\":").append(manager.getRecordCount())
+            .append(",\"segments\":").append(manager.getSegmentCount())
+            .append(",\"archivedRecords\":").append(manager.getArchivedRecordCount())
+            .append(",\"archivePartitions\":").append(manager.getArchivePartitionCount())
+            .append(",\"recordCacheHits\":").append(manager.getRecordCacheHits())
+            .append(",\"recordCacheMisses\":").append(manager.getRecordCacheMisses())
+            .append(",\"operations\":{");
+        String separator = "";
+        for (LatencyHistogram latency : manager.getMetrics().getLatencies()) {
+            json.append(separator);
+            appendString(json, latency.getName());
+            json.append(":{\"count\":").append(latency.getCount())
+                .append(",\"meanMicros\":").append(round(latency.getMeanMicros()))
+                .append(",\"p50Micros\":").append(round(latency.getP50Micros()))
+                .append(",\"p99Micros\":").append(round(latency.getP99Micros()))
+                .append(",\"maxMicros\":").append(round(latency.getMaxMicros())).append('}');
+            separator = ",";
+        }
+        return json.append("}}").toString();
+    }
+
+    public static String error(String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendString(json, message == null ? "" : message);
+        return json.append('}').toString();
+    }
+
+    public static void appendStudent(StringBuilder json, AttendanceManager manager, Student student) {
+        json.append("{\"studentId\":");
+        appendString(json, student.getStudentId());
+        json.append(",\"name\":");
+        appendString(json, student.getName());
+        json.append(",\"email\":");
+        appendString(json, student.getEmail());
+        json.append(",\"department\":");
+        appendString(json, student.getDepartment());
+        json.append(",\"attendance\":").append(round(manager.calculateAttendancePercentage(student.getStudentId())))
+            .append('}');
+    }
+
+    public static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    public static double round(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+}
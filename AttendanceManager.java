@@ -1,183 +1,2100 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
-public class AttendanceManager {
-    private HashMap<String, Student> students;
-    private ArrayList<AttendanceRecord> attendanceRecords;
-    private LinkedHashSet<String> subjects;
+// Safe to share between threads. Changes are serialised on the manager's
+// monitor and only hold it for the in-memory update; queries never lock and
+// never block a writer. Single marks are queued per thread in a MarkQueue
+// and applied in batches by whichever writer holds the monitor, so many
+// writers cost one acquisition rather than one each. Every structure a query touches is either a
+// concurrent map or single-writer and published through volatile fields.
+//
+// Student ids, subject names and departments are only used as strings at
+// the public API: each is looked up once in its SymbolTable, and every
+// index and aggregate below is keyed by the resulting dense int code.
+public class AttendanceManager implements AttendanceManagerMXBean {
+    private static final int MAX_SEGMENTS = 16;
+    private static final int REPORT_STUDENTS_PER_TASK = 256;
+    private static final String MBEAN_DOMAIN = "AttendanceSystem";
+
+    // Rough per-object heap costs (64-bit JVM, compressed oops) for
+    // getEstimatedHeapBytes: an IntList or CodeMap with its array header,
+    // an AttendanceCounter, and a PercentageIndex entry with its skip-list node.
+    private static final long LIST_BYTES = 40;
+    private static final long COUNTER_BYTES = 24;
+    private static final long RANKED_STUDENT_BYTES = 72;
+    private static final long ABSENCE_PATTERN_BYTES = 40;
+
+    private static final int DEFAULT_ALERT_STREAK = 3;
+    private static final int DEFAULT_ALERT_WEEKDAY_ABSENCES = 3;
+
+    private AttendanceStore attendanceRecords;
+    private SymbolTable studentIds;
+    private SymbolTable subjectIds;
+    private SymbolTable departmentIds;
+    private CodeMap<Student> students;
+    private IntList studentDepartments;
+    private CodeMap<IntList> studentsByDepartment;
+    private NameIndex nameIndex;
+
+    // Secondary indexes of row numbers into attendanceRecords, maintained by
+    // markAttendance; see "Performance Notes" in the README for the memory
+    // budget. Student and subject histories are kept in date order, with
+    // same-day rows in marking order. A student's history is one sorted list;
+    // a subject's is bucketed by day, since it is long and marks for past
+    // days would otherwise have to be inserted into the middle of it.
+    // archiveRecords replaces all three at once, so queries read each field
+    // once and skip rows dated before the archive cutoff.
+    private volatile CodeMap<IntList> rowsByStudent;
+    private volatile ConcurrentHashMap<Integer, IntList> rowsByDate;
+    private volatile CodeMap<ConcurrentSkipListMap<Integer, IntList>> rowsBySubject;
+
+    // Marks dated before the archive cutoff: only counted in the aggregates
+    // below, with the rows themselves in month partitions on disk.
+    private AttendanceArchive archive;
+
+    // Whole-history lists by student, date and subject. Every new or changed
+    // mark invalidates its own three keys. Adding a student needs nothing:
+    // unknown ids are never cached, and a student's records do not carry the
+    // details addStudent sets.
+    private RecordCache recordCache;
+
+    // The row holding each (student, subject, day) mark, so marking the same
+    // class again overwrites that row's status instead of adding a row.
+    private MarkIndex markIndex;
+
+    // Rows [unindexedFrom, unindexedTo) were restored with saved aggregates
+    // but are not yet in the row lists, the mark index or the session
+    // bitmaps; see indexRestoredRows.
+    private volatile boolean rowsUnindexed;
+    private int unindexedFrom;
+    private int unindexedTo;
+
+    // Running present/total counts per student and per (student, subject),
+    // so percentage queries never rescan records.
+    private CodeMap<AttendanceCounter> studentCounters;
+    private CodeMap<CodeMap<AttendanceCounter>> subjectCounters;
+    private CodeMap<AttendanceCounter> departmentCounters;
+    private CodeMap<CodeMap<AttendanceCounter>> departmentSubjectCounters;
+
+    // Students ordered by overall and by per-subject percentage, re-ranked on
+    // every mark, for low-attendance and top/bottom-k queries. A subject's
+    // index is only built the first time it is queried, since keeping one
+    // per subject doubles the cost of a mark.
+    private PercentageIndex percentageIndex;
+    private CodeMap<PercentageIndex> subjectPercentageIndexes;
+
+    // One bitmap over student codes per (subject, date) session, so roll-call
+    // questions are answered with word-wise AND/OR/popcount.
+    private CodeMap<ConcurrentSkipListMap<Integer, AttendanceBitmap>> sessionsBySubject;
+
+    // Day/week/month present and total counts per subject and per
+    // department, so date-range questions never touch individual records.
+    private CodeMap<AttendanceRollup> subjectRollups;
+    private CodeMap<AttendanceRollup> departmentRollups;
+
+    // Absence runs and weekday counts per (student, subject), updated with
+    // every mark. Pairs that currently break a rule are kept in the flag
+    // sets, keyed by (student code << 32 | subject code), so listing alerts
+    // never scans students. Alerts raised by a change are handed to the
+    // listeners once the lock is released.
+    private CodeMap<CodeMap<AbsencePattern>> absencePatterns;
+    // Each pair's kept rows in date order, so a replay walks one pair's
+    // history rather than the student's. Only writers read them.
+    private CodeMap<CodeMap<IntList>> rowsByStudentSubject;
+    private ConcurrentSkipListSet<Long> streakFlags;
+    private ConcurrentSkipListSet<Long> weekdayFlags;
+    private volatile int alertStreak = DEFAULT_ALERT_STREAK;
+    private volatile int alertWeekdayAbsences = DEFAULT_ALERT_WEEKDAY_ABSENCES;
+    private final List<AbsenceAlert> raisedAlerts = new ArrayList<>();
+    private final CopyOnWriteArrayList<AbsenceAlertListener> alertListeners = new CopyOnWriteArrayList<>();
+
+    private volatile AttendanceJournal journal;
+    private final MarkQueue markQueue = new MarkQueue();
+    private final AttendanceMetrics metrics = new AttendanceMetrics();
 
     public AttendanceManager() {
-        this.students = new HashMap<>();
-        this.attendanceRecords = new ArrayList<>();
-        this.subjects = new LinkedHashSet<>();
+        this.attendanceRecords = new AttendanceStore();
+        this.studentIds = attendanceRecords.getStudentIds();
+        this.subjectIds = attendanceRecords.getSubjectIds();
+        this.departmentIds = new SymbolTable();
+        this.students = new CodeMap<>();
+        this.studentDepartments = new IntList();
+        this.studentsByDepartment = new CodeMap<>();
+        this.nameIndex = new NameIndex();
+        this.rowsByStudent = new CodeMap<>();
+        this.rowsByDate = new ConcurrentHashMap<>();
+        this.rowsBySubject = new CodeMap<>();
+        this.markIndex = new MarkIndex(attendanceRecords);
+        this.archive = new AttendanceArchive(studentIds, subjectIds);
+        this.recordCache = new RecordCache();
+        this.studentCounters = new CodeMap<>();
+        this.subjectCounters = new CodeMap<>();
+        this.departmentCounters = new CodeMap<>();
+        this.departmentSubjectCounters = new CodeMap<>();
+        this.percentageIndex = new PercentageIndex();
+        this.subjectPercentageIndexes = new CodeMap<>();
+        this.sessionsBySubject = new CodeMap<>();
+        this.subjectRollups = new CodeMap<>();
+        this.departmentRollups = new CodeMap<>();
+        this.absencePatterns = new CodeMap<>();
+        this.rowsByStudentSubject = new CodeMap<>();
+        this.streakFlags = new ConcurrentSkipListSet<>();
+        this.weekdayFlags = new ConcurrentSkipListSet<>();
     }
 
-    public void addStudent(Student student) {
-        if (students.containsKey(student.getStudentId())) {
+    public synchronized void addStudent(Student student) {
+        if (studentIds.codeOf(student.getStudentId()) >= 0) {
             throw new IllegalArgumentException("Student with ID " + student.getStudentId() + " already exists");
         }
-        students.put(student.getStudentId(), student);
+        // Student codes are handed out in order, so the department list
+        // stays indexed by student code. The Student and its department are
+        // in place before the id is interned, so a reader that finds the
+        // code also finds them.
+        int studentCode = studentIds.size();
+        int departmentCode = departmentIds.intern(student.getDepartment());
+        studentDepartments.add(departmentCode);
+        students.put(studentCode, student);
+        studentIds.intern(student.getStudentId());
+        nameIndex.add(student.getName(), studentCode);
+        studentsByDepartment.computeIfAbsent(departmentCode, k -> new IntList()).add(studentCode);
+        if (journal != null) {
+            journal.logAddStudent(student);
+        }
     }
 
     public Student getStudent(String studentId) {
-        return students.get(studentId);
+        return students.get(studentIds.codeOf(studentId));
     }
 
-    public void addSubject(String subject) {
-        subjects.add(subject);
+    public synchronized void addSubject(String subject) {
+        if (subjectIds.codeOf(subject) < 0) {
+            subjectIds.intern(subject);
+            if (journal != null) {
+                journal.logAddSubject(subject);
+            }
+        }
     }
 
     public List<String> getAllSubjects() {
-        return new ArrayList<>(subjects);
+        int count = subjectIds.size();
+        List<String> result = new ArrayList<>(count);
+        for (int code = 0; code < count; code++) {
+            result.add(subjectIds.symbolOf(code));
+        }
+        return result;
     }
 
+    // Queues the mark and waits until it has been applied, by this thread or
+    // by whichever writer was already holding the lock for the queue.
     public void markAttendance(String studentId, LocalDate date, boolean isPresent, String subject) {
-        if (!students.containsKey(studentId)) {
-            throw new IllegalArgumentException("Student not found: " + studentId);
+        long startNanos = System.nanoTime();
+        try {
+            // Students and subjects are never removed, so validation, code
+            // lookups and the journal entry can all be done before queueing.
+            int studentCode = studentIds.codeOf(studentId);
+            if (studentCode < 0) {
+                throw new IllegalArgumentException("Student not found: " + studentId);
+            }
+            int subjectCode = subjectIds.codeOf(subject);
+            if (subjectCode < 0) {
+                throw new IllegalArgumentException("Subject not found: " + subject);
+            }
+            int epochDay = (int) date.toEpochDay();
+            AttendanceJournal currentJournal = journal;
+            byte[] entry = currentJournal == null ? null
+                    : currentJournal.encodeMarkAttendance(studentId, epochDay, isPresent, subject);
+
+            MarkQueue.Mark mark = new MarkQueue.Mark(studentCode, subjectCode, epochDay, isPresent, entry);
+            markQueue.add(mark);
+            while (!mark.done) {
+                if (markQueue.startCombining()) {
+                    applyQueuedMarks();
+                } else {
+                    markQueue.await();
+                }
+            }
+            if (mark.failure != null) {
+                throw mark.failure;
+            }
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.MARK_ATTENDANCE, startNanos);
+        }
+    }
+
+    // Applies every mark queued by markAttendance under one acquisition of
+    // the lock, logging each one that changed something, and repeats while
+    // marks queued during the pass are left. Alerts raised by the pass are
+    // delivered by this thread once the lock is released. Called after
+    // startCombining() succeeded.
+    private void applyQueuedMarks() {
+        do {
+            List<AbsenceAlert> alerts;
+            MarkQueue.Mark mark = null;
+            try {
+                synchronized (this) {
+                    indexRestoredRows();
+                    for (mark = markQueue.takeAll(); mark != null; ) {
+                        try {
+                            checkNotArchived(mark.epochDay);
+                            mark.changed = recordMark(mark.studentCode, mark.subjectCode, mark.epochDay,
+                                                      mark.present);
+                            if (mark.changed && journal != null) {
+                                journal.logEntry(mark.entry != null ? mark.entry
+                                        : journal.encodeMarkAttendance(studentIds.symbolOf(mark.studentCode),
+                                                                       mark.epochDay, mark.present,
+                                                                       subjectIds.symbolOf(mark.subjectCode)));
+                            }
+                        } catch (RuntimeException e) {
+                            mark.failure = e;
+                        }
+                        MarkQueue.Mark next = mark.next;
+                        MarkQueue.complete(mark);
+                        mark = next;
+                    }
+                    alerts = takeRaisedAlerts();
+                }
+            } finally {
+                // Only reached with marks left if an Error escaped.
+                for (; mark != null; mark = mark.next) {
+                    mark.failure = new IllegalStateException("Mark was not applied");
+                    MarkQueue.complete(mark);
+                }
+                markQueue.stopCombining();
+            }
+            notifyAlertListeners(alerts);
+        } while (!markQueue.isEmpty() && markQueue.startCombining());
+    }
+
+    // Marks a whole class roll for one subject and date in a single call:
+    // everything is validated up front, so either every mark is recorded or
+    // none is, and the lock is taken once. Present students are recorded
+    // first, then absent ones, each in the order given. Returns the number of
+    // marks added or changed; repeats of an existing status are not counted.
+    public int markClassAttendance(String subject, LocalDate date,
+                                   Collection<String> presentStudentIds, Collection<String> absentStudentIds) {
+        long startNanos = System.nanoTime();
+        List<AbsenceAlert> alerts;
+        int count;
+        int changed;
+        try {
+            int subjectCode = subjectIds.codeOf(subject);
+            if (subjectCode < 0) {
+                throw new IllegalArgumentException("Subject not found: " + subject);
+            }
+
+            count = presentStudentIds.size() + absentStudentIds.size();
+            String[] rollIds = new String[count];
+            int[] studentCodes = new int[count];
+            long[] seen = new long[(studentIds.size() + 63) >> 6];
+            int index = 0;
+            for (Collection<String> group : Arrays.asList(presentStudentIds, absentStudentIds)) {
+                for (String studentId : group) {
+                    int studentCode = studentIds.codeOf(studentId);
+                    if (studentCode < 0) {
+                        throw new IllegalArgumentException("Student not found: " + studentId);
+                    }
+                    if (studentCode >= seen.length << 6) {
+                        seen = Arrays.copyOf(seen, (studentCode >> 6) + 1);
+                    }
+                    long bit = 1L << studentCode;
+                    if ((seen[studentCode >> 6] & bit) != 0) {
+                        throw new IllegalArgumentException("Student listed more than once: " + studentId);
+                    }
+                    seen[studentCode >> 6] |= bit;
+                    rollIds[index] = studentId;
+                    studentCodes[index] = studentCode;
+                    index++;
+                }
+            }
+            int presentCount = presentStudentIds.size();
+            int epochDay = (int) date.toEpochDay();
+
+            synchronized (this) {
+                indexRestoredRows();
+                checkNotArchived(epochDay);
+                IntList dateRows = rowsByDate.computeIfAbsent(epochDay, k -> new IntList());
+                IntList subjectDayRows = rowsBySubject.computeIfAbsent(subjectCode, k -> new ConcurrentSkipListMap<>())
+                        .computeIfAbsent(epochDay, k -> new IntList());
+                AttendanceBitmap session = sessionsBySubject.computeIfAbsent(subjectCode, k -> new ConcurrentSkipListMap<>())
+                        .computeIfAbsent(epochDay, k -> new AttendanceBitmap());
+                AttendanceRollup subjectRollup = subjectRollups.computeIfAbsent(subjectCode, k -> new AttendanceRollup());
+                changed = 0;
+                for (int i = 0; i < count; i++) {
+                    boolean isPresent = i < presentCount;
+                    int existing = markIndex.find(studentCodes[i], subjectCode, epochDay);
+                    if (existing >= 0) {
+                        if (overwriteMark(existing, studentCodes[i], subjectCode, epochDay, isPresent)) {
+                            changed++;
+                        }
+                        continue;
+                    }
+                    changed++;
+                    int row = attendanceRecords.append(studentCodes[i], subjectCode, epochDay, isPresent);
+                    markIndex.put(row);
+                    indexRow(row, studentCodes[i], subjectCode, epochDay, isPresent,
+                             dateRows, subjectDayRows, session, subjectRollup);
+                }
+                if (journal != null) {
+                    journal.logMarkClassAttendance(subject, date, rollIds, presentCount);
+                }
+                alerts = takeRaisedAlerts();
+            }
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.MARK_CLASS_ATTENDANCE, startNanos);
+        }
+        notifyAlertListeners(alerts);
+        return changed;
+    }
+
+    // Bulk load of independent marks, e.g. from a CSV file. Entries
+    // [0, count) are all validated before any is recorded, then appended
+    // under a single acquisition of the lock. Returns the number of marks
+    // added or changed; repeats of an existing status are not counted.
+    public int importAttendance(String[] studentIds, int[] epochDays, boolean[] present, String[] subjects, int count) {
+        long startNanos = System.nanoTime();
+        List<AbsenceAlert> alerts;
+        int changed = 0;
+        try {
+            int[] studentCodes = new int[count];
+            int[] subjectCodes = new int[count];
+            for (int i = 0; i < count; i++) {
+                studentCodes[i] = this.studentIds.codeOf(studentIds[i]);
+                if (studentCodes[i] < 0) {
+                    throw new IllegalArgumentException("Student not found: " + studentIds[i]);
+                }
+                subjectCodes[i] = subjectIds.codeOf(subjects[i]);
+                if (subjectCodes[i] < 0) {
+                    throw new IllegalArgumentException("Subject not found: " + subjects[i]);
+                }
+            }
+
+            synchronized (this) {
+                indexRestoredRows();
+                for (int i = 0; i < count; i++) {
+                    checkNotArchived(epochDays[i]);
+                }
+                for (int i = 0; i < count; i++) {
+                    if (recordMark(studentCodes[i], subjectCodes[i], epochDays[i], present[i])) {
+                        changed++;
+                        if (journal != null) {
+                            journal.logMarkAttendance(studentIds[i], LocalDate.ofEpochDay(epochDays[i]), present[i],
+                                                      subjects[i]);
+                        }
+                    }
+                }
+                alerts = takeRaisedAlerts();
+            }
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.IMPORT_ATTENDANCE, startNanos);
+        }
+        notifyAlertListeners(alerts);
+        return changed;
+    }
+
+    // Visits every mark without building AttendanceRecord objects: archived
+    // marks by month, then the others in the order they were recorded.
+    // Marks recorded during the walk are not visited.
+    public void forEachRecord(AttendanceRecordVisitor visitor) {
+        archive.forEach(visitor);
+        int size = attendanceRecords.size();
+        for (int row = attendanceRecords.getFirstRow(); row < size; row++) {
+            visitor.visit(studentIds.symbolOf(attendanceRecords.getStudentCode(row)),
+                          attendanceRecords.getEpochDay(row),
+                          attendanceRecords.isPresent(row),
+                          subjectIds.symbolOf(attendanceRecords.getSubjectCode(row)));
+        }
+    }
+
+    private void checkNotArchived(int epochDay) {
+        if (archive.isArchived(epochDay)) {
+            throw new IllegalArgumentException("Attendance before " + LocalDate.ofEpochDay(archive.getCutoffDay())
+                                               + " is archived and can no longer be marked");
+        }
+    }
+
+    // Appends a new mark, or overwrites the status of an existing mark for the
+    // same student, subject and day. Returns false if nothing changed.
+    private boolean recordMark(int studentCode, int subjectCode, int epochDay, boolean isPresent) {
+        int existing = markIndex.find(studentCode, subjectCode, epochDay);
+        if (existing >= 0) {
+            return overwriteMark(existing, studentCode, subjectCode, epochDay, isPresent);
+        }
+        int row = attendanceRecords.append(studentCode, subjectCode, epochDay, isPresent);
+        markIndex.put(row);
+        indexRow(row, studentCode, subjectCode, epochDay, isPresent);
+        return true;
+    }
+
+    // Flips an existing row's status and moves every aggregate over by one
+    // present mark; row lists and totals are unchanged.
+    private boolean overwriteMark(int row, int studentCode, int subjectCode, int epochDay, boolean isPresent) {
+        if (attendanceRecords.isPresent(row) == isPresent) {
+            return false;
         }
-        if (!subjects.contains(subject)) {
-            throw new IllegalArgumentException("Subject not found: " + subject);
+        attendanceRecords.setPresent(row, isPresent);
+        recordCache.invalidateMark(studentCode, epochDay, subjectCode);
+
+        changeAndRank(studentCounters.get(studentCode), percentageIndex, studentCode, isPresent);
+        AttendanceCounter subjectCounter = subjectCounters.get(studentCode).get(subjectCode);
+        PercentageIndex subjectIndex = subjectPercentageIndexes.get(subjectCode);
+        if (subjectIndex == null) {
+            subjectCounter.changePresence(isPresent);
+        } else {
+            changeAndRank(subjectCounter, subjectIndex, studentCode, isPresent);
+        }
+        sessionsBySubject.get(subjectCode).get(epochDay).mark(studentCode, isPresent);
+        subjectRollups.get(subjectCode).changePresence(epochDay, isPresent);
+
+        int departmentCode = studentDepartments.get(studentCode);
+        departmentRollups.get(departmentCode).changePresence(epochDay, isPresent);
+        departmentCounters.get(departmentCode).changePresence(isPresent);
+        departmentSubjectCounters.get(departmentCode).get(subjectCode).changePresence(isPresent);
+
+        AbsencePattern pattern = absencePatterns.get(studentCode).get(subjectCode);
+        replayAbsences(pattern, studentCode, subjectCode);
+        checkAbsenceRules(pattern, studentCode, subjectCode, true);
+        return true;
+    }
+
+    private void indexRow(int row, int studentCode, int subjectCode, int epochDay, boolean isPresent) {
+        indexRow(row, studentCode, subjectCode, epochDay, isPresent,
+                 rowsByDate.computeIfAbsent(epochDay, k -> new IntList()),
+                 rowsBySubject.computeIfAbsent(subjectCode, k -> new ConcurrentSkipListMap<>())
+                         .computeIfAbsent(epochDay, k -> new IntList()),
+                 sessionsBySubject.computeIfAbsent(subjectCode, k -> new ConcurrentSkipListMap<>())
+                         .computeIfAbsent(epochDay, k -> new AttendanceBitmap()),
+                 subjectRollups.computeIfAbsent(subjectCode, k -> new AttendanceRollup()));
+    }
+
+    // The row lists and session bitmap alone, for a restored row whose
+    // aggregates came with the snapshot.
+    private void indexRowLists(int row, int studentCode, int subjectCode, int epochDay, boolean isPresent) {
+        addToTimeline(rowsByStudent.computeIfAbsent(studentCode, k -> new IntList()), row);
+        addToTimeline(rowsByStudentSubject.computeIfAbsent(studentCode, k -> new CodeMap<>(4))
+                              .computeIfAbsent(subjectCode, k -> new IntList()), row);
+        rowsByDate.computeIfAbsent(epochDay, k -> new IntList()).add(row);
+        rowsBySubject.computeIfAbsent(subjectCode, k -> new ConcurrentSkipListMap<>())
+                .computeIfAbsent(epochDay, k -> new IntList()).add(row);
+        sessionsBySubject.computeIfAbsent(subjectCode, k -> new ConcurrentSkipListMap<>())
+                .computeIfAbsent(epochDay, k -> new AttendanceBitmap()).mark(studentCode, isPresent);
+    }
+
+    private void indexRow(int row, int studentCode, int subjectCode, int epochDay, boolean isPresent,
+                          IntList dateRows, IntList subjectDayRows, AttendanceBitmap session,
+                          AttendanceRollup subjectRollup) {
+        addToTimeline(rowsByStudent.computeIfAbsent(studentCode, k -> new IntList()), row);
+        addToTimeline(rowsByStudentSubject.computeIfAbsent(studentCode, k -> new CodeMap<>(4))
+                              .computeIfAbsent(subjectCode, k -> new IntList()), row);
+        dateRows.add(row);
+        subjectDayRows.add(row);
+        session.mark(studentCode, isPresent);
+        recordAggregates(studentCode, subjectCode, epochDay, isPresent, subjectRollup);
+        recordCache.invalidateMark(studentCode, epochDay, subjectCode);
+    }
+
+    // Counters, rankings, rollups and absence patterns: everything that also
+    // covers archived marks.
+    private void recordAggregates(int studentCode, int subjectCode, int epochDay, boolean isPresent,
+                                  AttendanceRollup subjectRollup) {
+        recordAndRank(studentCounters.computeIfAbsent(studentCode, k -> new AttendanceCounter()),
+                      percentageIndex, studentCode, isPresent);
+        AttendanceCounter subjectCounter = subjectCounters.computeIfAbsent(studentCode, k -> new CodeMap<>(4))
+                .computeIfAbsent(subjectCode, k -> new AttendanceCounter());
+        PercentageIndex subjectIndex = subjectPercentageIndexes.get(subjectCode);
+        if (subjectIndex == null) {
+            subjectCounter.record(isPresent);
+        } else {
+            recordAndRank(subjectCounter, subjectIndex, studentCode, isPresent);
+        }
+        subjectRollup.record(epochDay, isPresent);
+
+        int departmentCode = studentDepartments.get(studentCode);
+        departmentRollups.computeIfAbsent(departmentCode, k -> new AttendanceRollup()).record(epochDay, isPresent);
+        departmentCounters.computeIfAbsent(departmentCode, k -> new AttendanceCounter()).record(isPresent);
+        departmentSubjectCounters.computeIfAbsent(departmentCode, k -> new CodeMap<>())
+                .computeIfAbsent(subjectCode, k -> new AttendanceCounter()).record(isPresent);
+
+        AbsencePattern pattern = absencePatterns.computeIfAbsent(studentCode, k -> new CodeMap<>(4))
+                .computeIfAbsent(subjectCode, k -> new AbsencePattern());
+        if (pattern.isInOrder(epochDay)) {
+            pattern.record(epochDay, isPresent);
+        } else {
+            replayAbsences(pattern, studentCode, subjectCode);
+        }
+        checkAbsenceRules(pattern, studentCode, subjectCode, true);
+    }
+
+    // Rebuilds a pair's absence state from its state at the archive cutoff
+    // and its date-sorted kept rows, for marks that arrive out of date order
+    // or are overwritten. Archived marks can no longer change, so the archive
+    // itself is never read.
+    private void replayAbsences(AbsencePattern pattern, int studentCode, int subjectCode) {
+        pattern.reset();
+        CodeMap<IntList> pairRows = rowsByStudentSubject.get(studentCode);
+        IntList timeline = pairRows == null ? null : pairRows.get(subjectCode);
+        for (int i = 0; timeline != null && i < timeline.size(); i++) {
+            int row = timeline.get(i);
+            pattern.record(attendanceRecords.getEpochDay(row), attendanceRecords.isPresent(row));
+        }
+    }
+
+    // Moves the pair in or out of the flag sets. The sets are only touched
+    // when a flag changes, so a mark that changes nothing costs two compares.
+    private void checkAbsenceRules(AbsencePattern pattern, int studentCode, int subjectCode, boolean raise) {
+        boolean streak = pattern.getCurrentStreak() >= alertStreak;
+        if (streak != pattern.isFlagged(AbsenceAlert.Type.CONSECUTIVE_ABSENCES)) {
+            pattern.setFlagged(AbsenceAlert.Type.CONSECUTIVE_ABSENCES, streak);
+            flag(streakFlags, studentCode, subjectCode, streak);
+            if (streak && raise) {
+                raiseAlert(toAlert(AbsenceAlert.Type.CONSECUTIVE_ABSENCES, studentCode, subjectCode));
+            }
+        }
+        boolean weekday = pattern.getClusteredWeekday(alertWeekdayAbsences) >= 0;
+        if (weekday != pattern.isFlagged(AbsenceAlert.Type.WEEKDAY_ABSENCES)) {
+            pattern.setFlagged(AbsenceAlert.Type.WEEKDAY_ABSENCES, weekday);
+            flag(weekdayFlags, studentCode, subjectCode, weekday);
+            if (weekday && raise) {
+                raiseAlert(toAlert(AbsenceAlert.Type.WEEKDAY_ABSENCES, studentCode, subjectCode));
+            }
         }
+    }
+
+    private static void flag(ConcurrentSkipListSet<Long> flags, int studentCode, int subjectCode, boolean flagged) {
+        long key = ((long) studentCode << 32) | subjectCode;
+        if (flagged) {
+            flags.add(key);
+        } else {
+            flags.remove(key);
+        }
+    }
 
-        AttendanceRecord record = new AttendanceRecord(studentId, date, isPresent, subject);
-        attendanceRecords.add(record);
+    private void raiseAlert(AbsenceAlert alert) {
+        if (alert != null && !alertListeners.isEmpty()) {
+            raisedAlerts.add(alert);
+        }
+    }
+
+    private List<AbsenceAlert> takeRaisedAlerts() {
+        if (raisedAlerts.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<AbsenceAlert> alerts = new ArrayList<>(raisedAlerts);
+        raisedAlerts.clear();
+        return alerts;
     }
 
+    private void notifyAlertListeners(List<AbsenceAlert> alerts) {
+        for (AbsenceAlert alert : alerts) {
+            for (AbsenceAlertListener listener : alertListeners) {
+                listener.alertRaised(alert);
+            }
+        }
+    }
+
+    // The alert for a flagged pair from its current state, or null if the
+    // pair no longer breaks the rule.
+    private AbsenceAlert toAlert(AbsenceAlert.Type type, int studentCode, int subjectCode) {
+        AbsencePattern pattern = absencePatterns.get(studentCode).get(subjectCode);
+        Student student = students.get(studentCode);
+        String subject = subjectIds.symbolOf(subjectCode);
+        if (type == AbsenceAlert.Type.CONSECUTIVE_ABSENCES) {
+            int streak = pattern.getCurrentStreak();
+            return streak >= alertStreak ? new AbsenceAlert(type, student, subject, streak, null) : null;
+        }
+        int weekday = pattern.getClusteredWeekday(alertWeekdayAbsences);
+        return weekday < 0 ? null : new AbsenceAlert(type, student, subject, pattern.getAbsences(weekday),
+                                                     DayOfWeek.of(weekday + 1));
+    }
+
+    private static void recordAndRank(AttendanceCounter counter, PercentageIndex index,
+                                      int studentCode, boolean isPresent) {
+        int oldPresent = counter.getPresentCount();
+        int oldTotal = counter.getTotalCount();
+        counter.record(isPresent);
+        index.update(studentCode, oldPresent, oldTotal, counter.getPresentCount(), counter.getTotalCount());
+    }
+
+    private static void changeAndRank(AttendanceCounter counter, PercentageIndex index,
+                                      int studentCode, boolean isPresent) {
+        int oldPresent = counter.getPresentCount();
+        int total = counter.getTotalCount();
+        counter.changePresence(isPresent);
+        index.update(studentCode, oldPresent, total, counter.getPresentCount(), total);
+    }
+
+    private void addToTimeline(IntList timeline, int row) {
+        int epochDay = attendanceRecords.getEpochDay(row);
+        if (timeline.isEmpty() || attendanceRecords.getEpochDay(timeline.get(timeline.size() - 1)) <= epochDay) {
+            timeline.add(row);
+        } else {
+            timeline.insert(firstRowAfter(timeline, epochDay), row);
+        }
+    }
+
+    // Index of the first row in the timeline whose date is after epochDay.
+    private int firstRowAfter(IntList timeline, long epochDay) {
+        int low = 0;
+        int high = timeline.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (attendanceRecords.getEpochDay(timeline.get(mid)) <= epochDay) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // The whole-history queries return unmodifiable lists, which may be
+    // shared with other callers through the record cache.
     public List<AttendanceRecord> getAttendanceByStudent(String studentId) {
-        List<AttendanceRecord> result = new ArrayList<>();
-        for (AttendanceRecord record : attendanceRecords) {
-            if (record.getStudentId().equals(studentId)) {
-                result.add(record);
+        long startNanos = System.nanoTime();
+        try {
+            int studentCode = studentIds.codeOf(studentId);
+            return cachedRecords(RecordCache.Kind.STUDENT, studentCode,
+                                 () -> studentRecords(studentCode, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.ATTENDANCE_BY_STUDENT, startNanos);
+        }
+    }
+
+    public List<AttendanceRecord> getAttendanceByStudent(String studentId, LocalDate from, LocalDate to) {
+        long startNanos = System.nanoTime();
+        try {
+            if (from.isAfter(to)) {
+                return new ArrayList<>();
             }
+            return studentRecords(studentIds.codeOf(studentId), (int) from.toEpochDay(), (int) to.toEpochDay());
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.ATTENDANCE_BY_STUDENT, startNanos);
         }
-        sortRecordsByDate(result);
-        return result;
     }
 
     public List<AttendanceRecord> getAttendanceByDate(LocalDate date) {
-        List<AttendanceRecord> result = new ArrayList<>();
-        for (AttendanceRecord record : attendanceRecords) {
-            if (record.getDate().equals(date)) {
-                result.add(record);
+        long startNanos = System.nanoTime();
+        try {
+            int epochDay = (int) date.toEpochDay();
+            return cachedRecords(RecordCache.Kind.DATE, epochDay, () -> dateRecords(epochDay));
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.ATTENDANCE_BY_DATE, startNanos);
+        }
+    }
+
+    public List<AttendanceRecord> getAttendanceBySubject(String subject) {
+        long startNanos = System.nanoTime();
+        try {
+            int subjectCode = subjectIds.codeOf(subject);
+            return cachedRecords(RecordCache.Kind.SUBJECT, subjectCode,
+                                 () -> subjectRecords(subjectCode, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.ATTENDANCE_BY_SUBJECT, startNanos);
+        }
+    }
+
+    public List<AttendanceRecord> getAttendanceBySubject(String subject, LocalDate from, LocalDate to) {
+        long startNanos = System.nanoTime();
+        try {
+            if (from.isAfter(to)) {
+                return new ArrayList<>();
             }
+            return subjectRecords(subjectIds.codeOf(subject), (int) from.toEpochDay(), (int) to.toEpochDay());
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.ATTENDANCE_BY_SUBJECT, startNanos);
+        }
+    }
+
+    private List<AttendanceRecord> cachedRecords(RecordCache.Kind kind, int code,
+                                                 Supplier<List<AttendanceRecord>> query) {
+        if (code < 0 && kind != RecordCache.Kind.DATE) {
+            return Collections.emptyList();
+        }
+        List<AttendanceRecord> cached = recordCache.get(kind, code);
+        if (cached != null) {
+            return cached;
+        }
+        long version = recordCache.version(kind, code);
+        return recordCache.put(kind, code, query.get(), version);
+    }
+
+    private IntList snapshotOf(IntList rows) {
+        return rows == null ? null : rows.snapshot();
+    }
+
+    private List<AttendanceRecord> dateRecords(int epochDay) {
+        awaitRowIndexes();
+        if (archive.isArchived(epochDay)) {
+            List<AttendanceRecord> result = new ArrayList<>();
+            archive.addDateRecords(epochDay, result);
+            return result;
+        }
+        IntList rows = snapshotOf(rowsByDate.get(epochDay));
+        return rows == null ? new ArrayList<>() : toRecords(rows, 0, rows.size());
+    }
+
+    // Records dated [fromDay, toDay]: archived ones first, then the slice of
+    // the timeline on or after the cutoff.
+    private List<AttendanceRecord> studentRecords(int studentCode, int fromDay, int toDay) {
+        awaitRowIndexes();
+        int cutoffDay = archive.getCutoffDay();
+        List<AttendanceRecord> result = new ArrayList<>();
+        if (studentCode < 0) {
+            return result;
+        }
+        if (fromDay < cutoffDay) {
+            archive.addStudentRecords(studentCode, fromDay, Math.min(toDay, cutoffDay - 1), result);
+        }
+        IntList timeline = snapshotOf(rowsByStudent.get(studentCode));
+        if (timeline != null && toDay >= cutoffDay) {
+            int start = firstRowAfter(timeline, (long) Math.max(fromDay, cutoffDay) - 1);
+            int end = firstRowAfter(timeline, toDay);
+            addRecords(timeline, start, end, result);
         }
         return result;
     }
 
-    public List<AttendanceRecord> getAttendanceBySubject(String subject) {
+    private List<AttendanceRecord> subjectRecords(int subjectCode, int fromDay, int toDay) {
+        awaitRowIndexes();
+        int cutoffDay = archive.getCutoffDay();
         List<AttendanceRecord> result = new ArrayList<>();
-        for (AttendanceRecord record : attendanceRecords) {
-            if (record.getSubject().equals(subject)) {
-                result.add(record);
+        if (subjectCode < 0) {
+            return result;
+        }
+        if (fromDay < cutoffDay) {
+            archive.addSubjectRecords(subjectCode, fromDay, Math.min(toDay, cutoffDay - 1), result);
+        }
+        ConcurrentSkipListMap<Integer, IntList> days = rowsBySubject.get(subjectCode);
+        if (days != null && toDay >= cutoffDay) {
+            addRecords(days.subMap(Math.max(fromDay, cutoffDay), true, toDay, true).values(), result);
+        }
+        return result;
+    }
+
+    private void addRecords(Collection<IntList> days, List<AttendanceRecord> result) {
+        for (IntList day : days) {
+            IntList rows = day.snapshot();
+            for (int i = 0; i < rows.size(); i++) {
+                result.add(attendanceRecords.toRecord(rows.get(i)));
             }
         }
-        sortRecordsByDate(result);
+    }
+
+    private List<AttendanceRecord> toRecords(IntList rows, int start, int end) {
+        List<AttendanceRecord> result = new ArrayList<>(end - start);
+        addRecords(rows, start, end, result);
         return result;
     }
 
+    private void addRecords(IntList rows, int start, int end, List<AttendanceRecord> result) {
+        for (int i = start; i < end; i++) {
+            result.add(attendanceRecords.toRecord(rows.get(i)));
+        }
+    }
+
     public double calculateAttendancePercentage(String studentId) {
-        List<AttendanceRecord> records = getAttendanceByStudent(studentId);
-        if (records.isEmpty()) {
-            return 0.0;
+        long startNanos = System.nanoTime();
+        try {
+            AttendanceCounter counter = studentCounters.get(studentIds.codeOf(studentId));
+            return counter == null ? 0.0 : counter.getPercentage();
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.ATTENDANCE_PERCENTAGE, startNanos);
         }
+    }
 
-        int presentCount = 0;
-        for (AttendanceRecord record : records) {
-            if (record.isPresent()) {
-                presentCount++;
+    // All of a student's marks, archived ones included, from the counter.
+    public int getMarkCount(String studentId) {
+        AttendanceCounter counter = studentCounters.get(studentIds.codeOf(studentId));
+        return counter == null ? 0 : counter.getTotalCount();
+    }
+
+    public Map<String, Double> calculateAttendancePercentageBySubject(String studentId) {
+        long startNanos = System.nanoTime();
+        try {
+            Map<String, Double> percentages = new HashMap<>();
+            addPercentages(subjectCounters.get(studentIds.codeOf(studentId)), percentages);
+            return percentages;
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.ATTENDANCE_PERCENTAGE, startNanos);
+        }
+    }
+
+    // Adds the percentage of every subject with a counter, keyed by subject name.
+    private void addPercentages(CodeMap<AttendanceCounter> counters, Map<String, Double> percentages) {
+        if (counters == null) {
+            return;
+        }
+        int subjectCount = Math.min(counters.capacity(), subjectIds.size());
+        for (int subjectCode = 0; subjectCode < subjectCount; subjectCode++) {
+            AttendanceCounter counter = counters.get(subjectCode);
+            if (counter != null) {
+                percentages.put(subjectIds.symbolOf(subjectCode), counter.getPercentage());
             }
         }
+    }
 
-        return (presentCount * 100.0) / records.size();
+    // The complete attendance report, students in name order and subjects in
+    // alphabetical order. Built in one pass over the running counters, split
+    // into fork/join tasks over the common pool; every task fills its own
+    // slice of the result, so no merging or locking is needed.
+    public List<StudentReport> generateReport() {
+        long startNanos = System.nanoTime();
+        try {
+            List<Student> sorted = studentsByName("", 0, Integer.MAX_VALUE);
+            StudentReport[] reports = new StudentReport[sorted.size()];
+            new ReportTask(sorted, reports, 0, reports.length).invoke();
+            return Arrays.asList(reports);
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.REPORT, startNanos);
+        }
     }
 
-    public Map<String, Double> calculateAttendancePercentageBySubject(String studentId) {
-        Map<String, Integer> totalCount = new HashMap<>();
-        Map<String, Integer> presentCount = new HashMap<>();
+    private class ReportTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Student> students;
+        private final StudentReport[] reports;
+        private final int from;
+        private final int to;
+
+        ReportTask(List<Student> students, StudentReport[] reports, int from, int to) {
+            this.students = students;
+            this.reports = reports;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > REPORT_STUDENTS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ReportTask(students, reports, from, mid), new ReportTask(students, reports, mid, to));
+                return;
+            }
+
+            for (int i = from; i < to; i++) {
+                Student student = students.get(i);
+                int studentCode = studentIds.codeOf(student.getStudentId());
+                AttendanceCounter overall = studentCounters.get(studentCode);
+                Map<String, Double> subjectPercentages = new TreeMap<>();
+                addPercentages(subjectCounters.get(studentCode), subjectPercentages);
+                // Present before total: record() bumps total first, so a mark
+                // landing in between can never leave present above total.
+                int presentCount = overall == null ? 0 : overall.getPresentCount();
+                int totalCount = overall == null ? 0 : overall.getTotalCount();
+                reports[i] = new StudentReport(student, presentCount, totalCount, subjectPercentages);
+            }
+        }
+    }
 
-        for (AttendanceRecord record : attendanceRecords) {
-            if (record.getStudentId().equals(studentId)) {
-                String subject = record.getSubject();
-                totalCount.put(subject, totalCount.getOrDefault(subject, 0) + 1);
-                if (record.isPresent()) {
-                    presentCount.put(subject, presentCount.getOrDefault(subject, 0) + 1);
+    // Present/total marks over [from, to]. A student's history is short, so it
+    // is counted from the date-sorted timeline, and from the archive for days
+    // before its cutoff; subjects and departments come from their rollups.
+    public AttendancePeriod getStudentAttendance(String studentId, LocalDate from, LocalDate to) {
+        long startNanos = System.nanoTime();
+        try {
+            int studentCode = studentIds.codeOf(studentId);
+            if (studentCode < 0 || from.isAfter(to)) {
+                return new AttendancePeriod(from, to, 0, 0);
+            }
+            int fromDay = (int) from.toEpochDay();
+            int toDay = (int) to.toEpochDay();
+            int cutoffDay = archive.getCutoffDay();
+            int present = 0;
+            int total = 0;
+            if (fromDay < cutoffDay) {
+                int[] archived = archive.countStudentMarks(studentCode, fromDay, Math.min(toDay, cutoffDay - 1));
+                present = archived[0];
+                total = archived[1];
+            }
+            awaitRowIndexes();
+            IntList timeline = snapshotOf(rowsByStudent.get(studentCode));
+            if (timeline != null && toDay >= cutoffDay) {
+                int start = firstRowAfter(timeline, (long) Math.max(fromDay, cutoffDay) - 1);
+                int end = firstRowAfter(timeline, toDay);
+                for (int i = start; i < end; i++) {
+                    if (attendanceRecords.isPresent(timeline.get(i))) {
+                        present++;
+                    }
                 }
+                total += end - start;
             }
+            return new AttendancePeriod(from, to, present, total);
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.PERIOD_ATTENDANCE, startNanos);
+        }
+    }
+
+    public AttendancePeriod getSubjectAttendance(String subject, LocalDate from, LocalDate to) {
+        long startNanos = System.nanoTime();
+        try {
+            AttendanceRollup rollup = subjectRollups.get(subjectIds.codeOf(subject));
+            return rollup == null ? new AttendancePeriod(from, to, 0, 0) : rollup.getRange(from, to);
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.PERIOD_ATTENDANCE, startNanos);
+        }
+    }
+
+    public AttendancePeriod getDepartmentAttendance(String department, LocalDate from, LocalDate to) {
+        long startNanos = System.nanoTime();
+        try {
+            AttendanceRollup rollup = departmentRollups.get(departmentIds.codeOf(department));
+            return rollup == null ? new AttendancePeriod(from, to, 0, 0) : rollup.getRange(from, to);
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.PERIOD_ATTENDANCE, startNanos);
+        }
+    }
+
+    // e.g. getDepartmentTrend("Computer Science", TimeBucket.WEEK, semesterStart, today)
+    public List<AttendancePeriod> getSubjectTrend(String subject, TimeBucket bucket, LocalDate from, LocalDate to) {
+        long startNanos = System.nanoTime();
+        try {
+            AttendanceRollup rollup = subjectRollups.get(subjectIds.codeOf(subject));
+            return rollup == null ? new ArrayList<>() : rollup.getTrend(bucket, from, to);
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.ATTENDANCE_TREND, startNanos);
+        }
+    }
+
+    public List<AttendancePeriod> getDepartmentTrend(String department, TimeBucket bucket,
+                                                     LocalDate from, LocalDate to) {
+        long startNanos = System.nanoTime();
+        try {
+            AttendanceRollup rollup = departmentRollups.get(departmentIds.codeOf(department));
+            return rollup == null ? new ArrayList<>() : rollup.getTrend(bucket, from, to);
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.ATTENDANCE_TREND, startNanos);
+        }
+    }
+
+    public List<String> getAllDepartments() {
+        List<String> result = new ArrayList<>();
+        for (int code = 0; code < departmentIds.size(); code++) {
+            result.add(departmentIds.symbolOf(code));
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    public List<Student> getStudentsByDepartment(String department) {
+        IntList codes = snapshotOf(studentsByDepartment.get(departmentIds.codeOf(department)));
+        List<Student> result = new ArrayList<>();
+        if (codes == null) {
+            return result;
+        }
+        for (int i = 0; i < codes.size(); i++) {
+            result.add(students.get(codes.get(i)));
+        }
+        return result;
+    }
+
+    public double calculateDepartmentAttendancePercentage(String department) {
+        long startNanos = System.nanoTime();
+        try {
+            AttendanceCounter counter = departmentCounters.get(departmentIds.codeOf(department));
+            return counter == null ? 0.0 : counter.getPercentage();
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.DEPARTMENT_PERCENTAGE, startNanos);
+        }
+    }
+
+    public Map<String, Double> calculateDepartmentAttendancePercentageBySubject(String department) {
+        long startNanos = System.nanoTime();
+        try {
+            return departmentPercentagesBySubject(department);
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.DEPARTMENT_PERCENTAGE, startNanos);
         }
+    }
 
-        Map<String, Double> percentages = new HashMap<>();
-        for (String subject : totalCount.keySet()) {
-            int total = totalCount.get(subject);
-            int present = presentCount.getOrDefault(subject, 0);
-            percentages.put(subject, (present * 100.0) / total);
+    // Department x subject attendance percentages, both in alphabetical order.
+    // Cells with no marks are left out.
+    public Map<String, Map<String, Double>> getDepartmentSubjectMatrix() {
+        long startNanos = System.nanoTime();
+        try {
+            Map<String, Map<String, Double>> matrix = new TreeMap<>();
+            for (String department : getAllDepartments()) {
+                matrix.put(department, departmentPercentagesBySubject(department));
+            }
+            return matrix;
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.DEPARTMENT_PERCENTAGE, startNanos);
         }
+    }
 
+    private Map<String, Double> departmentPercentagesBySubject(String department) {
+        Map<String, Double> percentages = new TreeMap<>();
+        addPercentages(departmentSubjectCounters.get(departmentIds.codeOf(department)), percentages);
         return percentages;
     }
 
+    public int getPresentCount(String subject, LocalDate date) {
+        long startNanos = System.nanoTime();
+        try {
+            AttendanceBitmap session = getSession(subject, date);
+            return session == null ? 0 : session.getPresentCount();
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.SESSION_QUERY, startNanos);
+        }
+    }
+
+    public int getMarkedCount(String subject, LocalDate date) {
+        long startNanos = System.nanoTime();
+        try {
+            AttendanceBitmap session = getSession(subject, date);
+            return session == null ? 0 : session.getMarkedCount();
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.SESSION_QUERY, startNanos);
+        }
+    }
+
+    private AttendanceBitmap getSession(String subject, LocalDate date) {
+        awaitRowIndexes();
+        int subjectCode = subjectIds.codeOf(subject);
+        int epochDay = (int) date.toEpochDay();
+        if (archive.isArchived(epochDay)) {
+            return subjectCode < 0 ? null : archive.getSessions(subjectCode, epochDay, epochDay).get(epochDay);
+        }
+        NavigableMap<Integer, AttendanceBitmap> sessions = sessionsBySubject.get(subjectCode);
+        return sessions == null ? null : sessions.get(epochDay);
+    }
+
+    public List<Student> getStudentsAbsentFromAllSessions(String subject, LocalDate from, LocalDate to) {
+        long startNanos = System.nanoTime();
+        try {
+            awaitRowIndexes();
+            int subjectCode = subjectIds.codeOf(subject);
+            if (subjectCode < 0 || from.isAfter(to)) {
+                return new ArrayList<>();
+            }
+
+            int fromDay = (int) from.toEpochDay();
+            int toDay = (int) to.toEpochDay();
+            int cutoffDay = archive.getCutoffDay();
+            List<AttendanceBitmap> held = new ArrayList<>();
+            if (fromDay < cutoffDay) {
+                held.addAll(archive.getSessions(subjectCode, fromDay, Math.min(toDay, cutoffDay - 1)).values());
+            }
+            NavigableMap<Integer, AttendanceBitmap> sessions = sessionsBySubject.get(subjectCode);
+            if (sessions != null && toDay >= cutoffDay) {
+                held.addAll(sessions.subMap(Math.max(fromDay, cutoffDay), true, toDay, true).values());
+            }
+            if (held.isEmpty()) {
+                return new ArrayList<>();
+            }
+
+            long[] absent = allStudentBits();
+            for (AttendanceBitmap session : held) {
+                session.andAbsentInto(absent);
+            }
+            return toStudents(absent);
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.SESSION_QUERY, startNanos);
+        }
+    }
+
+    public List<Student> getStudentsAbsentOnAllDates(List<LocalDate> dates) {
+        long startNanos = System.nanoTime();
+        try {
+            awaitRowIndexes();
+            if (dates.isEmpty()) {
+                return new ArrayList<>();
+            }
+
+            long[] absent = allStudentBits();
+            for (LocalDate date : dates) {
+                int epochDay = (int) date.toEpochDay();
+                long[] marked = new long[absent.length];
+                long[] present = new long[absent.length];
+                CodeMap<AttendanceBitmap> archived = archive.isArchived(epochDay) ? archive.getSessionsOn(epochDay) : null;
+                for (int subjectCode = 0; subjectCode < subjectIds.size(); subjectCode++) {
+                    NavigableMap<Integer, AttendanceBitmap> sessions = sessionsBySubject.get(subjectCode);
+                    AttendanceBitmap session = archived != null ? archived.get(subjectCode)
+                            : sessions == null ? null : sessions.get(epochDay);
+                    if (session != null) {
+                        session.orMarkedInto(marked);
+                        session.orPresentInto(present);
+                    }
+                }
+                for (int i = 0; i < absent.length; i++) {
+                    absent[i] &= marked[i] & ~present[i];
+                }
+            }
+            return toStudents(absent);
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.SESSION_QUERY, startNanos);
+        }
+    }
+
+    private long[] allStudentBits() {
+        long[] bits = new long[(studentIds.size() + 63) >> 6];
+        Arrays.fill(bits, -1L);
+        return bits;
+    }
+
+    private List<Student> toStudents(long[] bits) {
+        List<Student> result = new ArrayList<>();
+        for (int word = 0; word < bits.length; word++) {
+            long remaining = bits[word];
+            while (remaining != 0) {
+                int code = (word << 6) + Long.numberOfTrailingZeros(remaining);
+                if (code >= studentIds.size()) {
+                    return result;
+                }
+                result.add(students.get(code));
+                remaining &= remaining - 1;
+            }
+        }
+        return result;
+    }
+
     public List<Student> getAllStudents() {
-        return new ArrayList<>(students.values());
+        int count = studentIds.size();
+        List<Student> result = new ArrayList<>(count);
+        for (int code = 0; code < count; code++) {
+            Student student = students.get(code);
+            if (student != null) {
+                result.add(student);
+            }
+        }
+        return result;
     }
 
+    // Every student in name order, read from the name index rather than sorted.
     public List<Student> getStudentsSortedByName() {
-        List<Student> studentList = getAllStudents();
-        quickSort(studentList, 0, studentList.size() - 1);
-        return studentList;
+        long startNanos = System.nanoTime();
+        try {
+            return studentsByName("", 0, Integer.MAX_VALUE);
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.STUDENTS_BY_NAME, startNanos);
+        }
     }
 
-    private void quickSort(List<Student> students, int low, int high) {
-        if (low < high) {
-            int pi = partition(students, low, high);
-            quickSort(students, low, pi - 1);
-            quickSort(students, pi + 1, high);
+    // One page of the roster in name order: O(log n + offset + limit), so
+    // page 1 of 100,000 students touches only that page.
+    public List<Student> getStudentsSortedByName(int offset, int limit) {
+        long startNanos = System.nanoTime();
+        try {
+            return studentsByName("", offset, limit);
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.STUDENTS_BY_NAME, startNanos);
         }
     }
 
-    private int partition(List<Student> students, int low, int high) {
-        String pivot = students.get(high).getName();
-        int i = low - 1;
+    // Students whose name starts with prefix, ignoring case, in name order.
+    public List<Student> searchStudentsByName(String prefix, int offset, int limit) {
+        long startNanos = System.nanoTime();
+        try {
+            return studentsByName(prefix, offset, limit);
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.STUDENTS_BY_NAME, startNanos);
+        }
+    }
 
-        for (int j = low; j < high; j++) {
-            if (students.get(j).getName().compareToIgnoreCase(pivot) < 0) {
-                i++;
-                Student temp = students.get(i);
-                students.set(i, students.get(j));
-                students.set(j, temp);
+    // Walks the students whose name starts with prefix ("" for everyone) in
+    // name order, reading the index only as far as the caller goes.
+    public Iterator<Student> iterateStudentsByName(String prefix) {
+        PrimitiveIterator.OfInt codes = nameIndex.iterator(prefix);
+        return new Iterator<Student>() {
+            @Override
+            public boolean hasNext() {
+                return codes.hasNext();
             }
-        }
 
-        Student temp = students.get(i + 1);
-        students.set(i + 1, students.get(high));
-        students.set(high, temp);
+            @Override
+            public Student next() {
+                return students.get(codes.nextInt());
+            }
+        };
+    }
 
-        return i + 1;
+    private List<Student> studentsByName(String prefix, int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Invalid page: offset " + offset + ", limit " + limit);
+        }
+        PrimitiveIterator.OfInt codes = nameIndex.iterator(prefix);
+        for (int i = 0; i < offset && codes.hasNext(); i++) {
+            codes.nextInt();
+        }
+        List<Student> result = new ArrayList<>(Math.min(limit, studentIds.size()));
+        while (result.size() < limit && codes.hasNext()) {
+            result.add(students.get(codes.nextInt()));
+        }
+        return result;
     }
 
-    private void sortRecordsByDate(List<AttendanceRecord> records) {
-        for (int i = 0; i < records.size() - 1; i++) {
-            for (int j = 0; j < records.size() - i - 1; j++) {
-                if (records.get(j).getDate().isAfter(records.get(j + 1).getDate())) {
-                    AttendanceRecord temp = records.get(j);
-                    records.set(j, records.get(j + 1));
-                    records.set(j + 1, temp);
+    public List<Student> getLowAttendanceStudents(String department, double threshold) {
+        long startNanos = System.nanoTime();
+        try {
+            List<Student> lowAttendanceStudents = new ArrayList<>();
+
+            IntList codes = snapshotOf(studentsByDepartment.get(departmentIds.codeOf(department)));
+            if (codes == null) {
+                return lowAttendanceStudents;
+            }
+            for (int i = 0; i < codes.size(); i++) {
+                AttendanceCounter counter = studentCounters.get(codes.get(i));
+                if (counter != null && counter.getTotalCount() > 0 && counter.getPercentage() < threshold) {
+                    lowAttendanceStudents.add(students.get(codes.get(i)));
                 }
             }
+
+            return lowAttendanceStudents;
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.LOW_ATTENDANCE, startNanos);
         }
     }
 
+    // Every student with marks whose attendance is below the threshold,
+    // lowest first. Students who attended nothing (0%) are included; students
+    // with no marks at all are not.
     public List<Student> getLowAttendanceStudents(double threshold) {
-        List<Student> lowAttendanceStudents = new ArrayList<>();
+        long startNanos = System.nanoTime();
+        try {
+            return toStudents(percentageIndex.range(0, threshold));
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.LOW_ATTENDANCE, startNanos);
+        }
+    }
+
+    // Students with from <= attendance < to, lowest first, e.g. the 65-75% warning band.
+    public List<Student> getStudentsInAttendanceRange(double from, double to) {
+        long startNanos = System.nanoTime();
+        try {
+            return toStudents(percentageIndex.range(from, to));
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.LOW_ATTENDANCE, startNanos);
+        }
+    }
+
+    public List<Student> getLowestAttendanceStudents(int count) {
+        long startNanos = System.nanoTime();
+        try {
+            return toStudents(percentageIndex.lowest(count));
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.LOW_ATTENDANCE, startNanos);
+        }
+    }
+
+    public List<Student> getHighestAttendanceStudents(int count) {
+        long startNanos = System.nanoTime();
+        try {
+            return toStudents(percentageIndex.highest(count));
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.LOW_ATTENDANCE, startNanos);
+        }
+    }
+
+    public List<Student> getLowAttendanceStudentsBySubject(String subject, double threshold) {
+        long startNanos = System.nanoTime();
+        try {
+            return toStudents(subjectPercentageIndex(subject).range(0, threshold));
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.LOW_ATTENDANCE, startNanos);
+        }
+    }
+
+    public List<Student> getLowestAttendanceStudentsBySubject(String subject, int count) {
+        long startNanos = System.nanoTime();
+        try {
+            return toStudents(subjectPercentageIndex(subject).lowest(count));
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.LOW_ATTENDANCE, startNanos);
+        }
+    }
+
+    private PercentageIndex subjectPercentageIndex(String subject) {
+        int subjectCode = subjectIds.codeOf(subject);
+        if (subjectCode < 0) {
+            return new PercentageIndex();
+        }
+        PercentageIndex index = subjectPercentageIndexes.get(subjectCode);
+        if (index != null) {
+            return index;
+        }
+        synchronized (this) {
+            index = subjectPercentageIndexes.get(subjectCode);
+            if (index == null) {
+                index = new PercentageIndex();
+                for (int studentCode = 0; studentCode < studentIds.size(); studentCode++) {
+                    CodeMap<AttendanceCounter> counters = subjectCounters.get(studentCode);
+                    AttendanceCounter counter = counters == null ? null : counters.get(subjectCode);
+                    if (counter != null) {
+                        index.update(studentCode, 0, 0, counter.getPresentCount(), counter.getTotalCount());
+                    }
+                }
+                subjectPercentageIndexes.put(subjectCode, index);
+            }
+            return index;
+        }
+    }
+
+    private List<Student> toStudents(List<PercentageIndex.Entry> entries) {
+        List<Student> result = new ArrayList<>(entries.size());
+        for (PercentageIndex.Entry entry : entries) {
+            result.add(students.get(entry.getStudentCode()));
+        }
+        return result;
+    }
+
+    // Every (student, subject) currently breaking an absence rule: a run of
+    // at least the alert streak of absences, or absences clustered on one
+    // weekday. Read from the flag sets, so the cost is the number of alerts.
+    public List<AbsenceAlert> getAbsenceAlerts() {
+        long startNanos = System.nanoTime();
+        try {
+            List<AbsenceAlert> alerts = new ArrayList<>();
+            addAlerts(streakFlags, AbsenceAlert.Type.CONSECUTIVE_ABSENCES, alerts);
+            addAlerts(weekdayFlags, AbsenceAlert.Type.WEEKDAY_ABSENCES, alerts);
+            return alerts;
+        } finally {
+            metrics.record(AttendanceMetrics.Operation.ABSENCE_ALERTS, startNanos);
+        }
+    }
+
+    private void addAlerts(ConcurrentSkipListSet<Long> flags, AbsenceAlert.Type type, List<AbsenceAlert> alerts) {
+        for (long key : flags) {
+            AbsenceAlert alert = toAlert(type, (int) (key >>> 32), (int) key);
+            if (alert != null) {
+                alerts.add(alert);
+            }
+        }
+    }
+
+    // Called after the marking call that raised the alert returns its lock,
+    // on the marking thread; a slow listener slows that caller only.
+    public void addAbsenceAlertListener(AbsenceAlertListener listener) {
+        alertListeners.add(listener);
+    }
+
+    public void removeAbsenceAlertListener(AbsenceAlertListener listener) {
+        alertListeners.remove(listener);
+    }
+
+    // Changes the rules and re-checks every pair once; no alerts are raised
+    // for pairs the change flags.
+    public synchronized void setAbsenceAlertRules(int streak, int weekdayAbsences) {
+        if (streak < 1 || weekdayAbsences < 1) {
+            throw new IllegalArgumentException("Alert thresholds must be at least 1");
+        }
+        alertStreak = streak;
+        alertWeekdayAbsences = weekdayAbsences;
+        for (int studentCode = 0; studentCode < studentIds.size(); studentCode++) {
+            CodeMap<AbsencePattern> patterns = absencePatterns.get(studentCode);
+            if (patterns == null) {
+                continue;
+            }
+            for (int subjectCode = 0; subjectCode < patterns.capacity(); subjectCode++) {
+                AbsencePattern pattern = patterns.get(subjectCode);
+                if (pattern != null) {
+                    checkAbsenceRules(pattern, studentCode, subjectCode, false);
+                }
+            }
+        }
+    }
+
+    public int getAbsenceAlertStreak() {
+        return alertStreak;
+    }
+
+    public int getAbsenceAlertWeekdayAbsences() {
+        return alertWeekdayAbsences;
+    }
+
+    public synchronized void setJournal(AttendanceJournal journal) {
+        this.journal = journal;
+    }
+
+    public AttendanceMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Exposes this manager and one histogram per operation through the
+    // platform MBean server, e.g. AttendanceSystem:type=Operation,name=markAttendance.
+    public void registerMBeans() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, new ObjectName(MBEAN_DOMAIN + ":type=AttendanceManager"));
+        for (LatencyHistogram histogram : metrics.getLatencies()) {
+            server.registerMBean(histogram,
+                                 new ObjectName(MBEAN_DOMAIN + ":type=Operation,name=" + histogram.getName()));
+        }
+    }
+
+    @Override
+    public int getStudentCount() {
+        return studentIds.size();
+    }
 
-        for (Student student : students.values()) {
-            double percentage = calculateAttendancePercentage(student.getStudentId());
-            if (percentage < threshold && percentage > 0) {
-                lowAttendanceStudents.add(student);
+    @Override
+    public int getSubjectCount() {
+        return subjectIds.size();
+    }
+
+    @Override
+    public int getDepartmentCount() {
+        return departmentIds.size();
+    }
+
+    @Override
+    public int getRecordCount() {
+        return (int) (attendanceRecords.size() - attendanceRecords.getFirstRow() + archive.getRecordCount());
+    }
+
+    @Override
+    public int getSegmentCount() {
+        return attendanceRecords.getSegments().size();
+    }
+
+    @Override
+    public long getArchivedRecordCount() {
+        return archive.getRecordCount();
+    }
+
+    @Override
+    public int getArchivePartitionCount() {
+        return archive.getPartitionCount();
+    }
+
+    @Override
+    public long getArchiveCacheHits() {
+        return archive.getCacheHits();
+    }
+
+    @Override
+    public long getArchiveCacheMisses() {
+        return archive.getCacheMisses();
+    }
+
+    // The first day that has not been archived, or null if nothing has been.
+    public LocalDate getArchiveCutoff() {
+        int cutoffDay = archive.getCutoffDay();
+        return cutoffDay == Integer.MIN_VALUE ? null : LocalDate.ofEpochDay(cutoffDay);
+    }
+
+    public int getArchiveCacheCapacity() {
+        return archive.getCacheCapacity();
+    }
+
+    public void setArchiveCacheCapacity(int partitions) {
+        archive.setCacheCapacity(partitions);
+    }
+
+    public int getCachedArchivePartitionCount() {
+        return archive.getCachedPartitionCount();
+    }
+
+    @Override
+    public long getRecordCacheHits() {
+        return recordCache.getHits();
+    }
+
+    @Override
+    public long getRecordCacheMisses() {
+        return recordCache.getMisses();
+    }
+
+    @Override
+    public double getRecordCacheHitRatio() {
+        return recordCache.getHitRatio();
+    }
+
+    @Override
+    public long getRecordCacheEvictions() {
+        return recordCache.getEvictions();
+    }
+
+    public RecordCache getRecordCache() {
+        return recordCache;
+    }
+
+    // Heap held by records, indexes and aggregates, walking every student and
+    // session, so it costs a few milliseconds for large data sets. Rows in
+    // segment files are not on the heap and are not counted.
+    @Override
+    public long getEstimatedHeapBytes() {
+        awaitRowIndexes();
+        long bytes = attendanceRecords.estimateBytes() + markIndex.estimateBytes() + archive.estimateBytes()
+                + recordCache.estimateBytes();
+        // Once anything is archived, a pattern also keeps its state at the cutoff.
+        long patternBytes = archive.getPartitionCount() == 0 ? ABSENCE_PATTERN_BYTES : 2 * ABSENCE_PATTERN_BYTES;
+        for (int studentCode = 0; studentCode < studentIds.size(); studentCode++) {
+            bytes += listBytes(rowsByStudent.get(studentCode));
+            CodeMap<IntList> pairRows = rowsByStudentSubject.get(studentCode);
+            if (pairRows != null) {
+                bytes += LIST_BYTES + (long) Integer.BYTES * pairRows.capacity();
+                for (int subjectCode = 0; subjectCode < pairRows.capacity(); subjectCode++) {
+                    bytes += listBytes(pairRows.get(subjectCode));
+                }
+            }
+            if (studentCounters.get(studentCode) != null) {
+                bytes += COUNTER_BYTES;
+            }
+            CodeMap<AttendanceCounter> counters = subjectCounters.get(studentCode);
+            if (counters != null) {
+                bytes += LIST_BYTES + (long) Integer.BYTES * counters.capacity();
+                for (int subjectCode = 0; subjectCode < counters.capacity(); subjectCode++) {
+                    if (counters.get(subjectCode) != null) {
+                        bytes += COUNTER_BYTES;
+                    }
+                }
+            }
+            CodeMap<AbsencePattern> patterns = absencePatterns.get(studentCode);
+            if (patterns != null) {
+                bytes += LIST_BYTES + (long) Integer.BYTES * patterns.capacity();
+                for (int subjectCode = 0; subjectCode < patterns.capacity(); subjectCode++) {
+                    if (patterns.get(subjectCode) != null) {
+                        bytes += patternBytes;
+                    }
+                }
             }
         }
+        for (IntList rows : rowsByDate.values()) {
+            bytes += listBytes(rows);
+        }
+        for (int subjectCode = 0; subjectCode < subjectIds.size(); subjectCode++) {
+            ConcurrentSkipListMap<Integer, IntList> days = rowsBySubject.get(subjectCode);
+            if (days != null) {
+                for (IntList rows : days.values()) {
+                    bytes += listBytes(rows);
+                }
+            }
+            ConcurrentSkipListMap<Integer, AttendanceBitmap> sessions = sessionsBySubject.get(subjectCode);
+            if (sessions != null) {
+                for (AttendanceBitmap session : sessions.values()) {
+                    bytes += session.estimateBytes();
+                }
+            }
+            PercentageIndex subjectIndex = subjectPercentageIndexes.get(subjectCode);
+            if (subjectIndex != null) {
+                bytes += RANKED_STUDENT_BYTES * subjectIndex.size();
+            }
+        }
+        return bytes + RANKED_STUDENT_BYTES * percentageIndex.size();
+    }
 
-        return lowAttendanceStudents;
+    private static long listBytes(IntList rows) {
+        return rows == null ? 0 : LIST_BYTES + (long) Integer.BYTES * rows.capacity();
     }
 
+    @Override
+    public void resetMetrics() {
+        metrics.reset();
+        recordCache.resetStatistics();
+    }
+
+    // Moves the rows marked since the last call into a new segment file, so
+    // they are no longer held on the heap; the journal syncs it once the lock
+    // is released. Once MAX_SEGMENTS exist, every row is rewritten into the
+    // new segment instead.
+    public synchronized void sealRecords(Path segmentPath) throws IOException {
+        int sealed = attendanceRecords.getSegmentedSize();
+        int total = attendanceRecords.size();
+        if (sealed == total) {
+            return;
+        }
+        if (attendanceRecords.getSegments().size() >= MAX_SEGMENTS) {
+            attendanceRecords.replaceAll(AttendanceSegment.write(segmentPath, attendanceRecords,
+                                                                 attendanceRecords.getFirstRow(), total));
+        } else {
+            attendanceRecords.sealTail(AttendanceSegment.write(segmentPath, attendanceRecords, sealed, total));
+        }
+    }
+
+    public List<AttendanceSegment> getSegments() {
+        return attendanceRecords.getSegments();
+    }
+
+    public List<Path> getArchivePaths() {
+        List<Path> paths = new ArrayList<>(archive.getPartitionCount());
+        for (int partition = 0; partition < archive.getPartitionCount(); partition++) {
+            paths.add(archive.getPartitionPath(partition));
+        }
+        return paths;
+    }
+
+    // Moves every mark dated before cutoff off the heap: into one archive
+    // partition per calendar month, written to partitionPaths, while the
+    // marks kept are rewritten in order into one segment at keptSegmentPath.
+    // Counters, rankings, rollups and absence patterns still include the
+    // archived marks; row lists, the duplicate table and session bitmaps
+    // only hold the kept ones. Marks dated before cutoff are refused from
+    // then on. Returns the number of marks archived.
+    public synchronized int archiveRecords(LocalDate cutoff, Path keptSegmentPath,
+                                           Function<YearMonth, Path> partitionPaths) throws IOException {
+        indexRestoredRows();
+        int cutoffDay = (int) cutoff.toEpochDay();
+        if (cutoffDay <= archive.getCutoffDay()) {
+            throw new IllegalArgumentException("Attendance before " + LocalDate.ofEpochDay(archive.getCutoffDay())
+                                               + " is already archived");
+        }
+
+        // Each month's rows, sorted by student and then date, straight from
+        // the student timelines.
+        TreeSet<YearMonth> months = new TreeSet<>();
+        for (int epochDay : rowsByDate.keySet()) {
+            if (epochDay < cutoffDay) {
+                months.add(YearMonth.from(LocalDate.ofEpochDay(epochDay)));
+            }
+        }
+        List<AttendanceSegment> partitions = new ArrayList<>(months.size());
+        int archived = 0;
+        for (YearMonth month : months) {
+            int fromDay = (int) month.atDay(1).toEpochDay();
+            int toDay = Math.min((int) month.atEndOfMonth().toEpochDay(), cutoffDay - 1);
+            IntList rows = new IntList();
+            for (int studentCode = 0; studentCode < studentIds.size(); studentCode++) {
+                IntList timeline = rowsByStudent.get(studentCode);
+                if (timeline != null) {
+                    int end = firstRowAfter(timeline, toDay);
+                    for (int i = firstRowAfter(timeline, fromDay - 1); i < end; i++) {
+                        rows.add(timeline.get(i));
+                    }
+                }
+            }
+            if (!rows.isEmpty()) {
+                partitions.add(AttendanceSegment.write(partitionPaths.apply(month), attendanceRecords, rows));
+                archived += rows.size();
+            }
+        }
+
+        // The kept rows in their original order, renumbered from size().
+        int firstRow = attendanceRecords.getFirstRow();
+        int size = attendanceRecords.size();
+        int[] keptRows = new int[size - firstRow];
+        IntList kept = new IntList();
+        for (int row = firstRow; row < size; row++) {
+            if (attendanceRecords.getEpochDay(row) >= cutoffDay) {
+                keptRows[row - firstRow] = size + kept.size();
+                kept.add(row);
+            } else {
+                keptRows[row - firstRow] = -1;
+            }
+        }
+        AttendanceSegment keptSegment = kept.isEmpty() ? null
+                : AttendanceSegment.write(keptSegmentPath, attendanceRecords, kept);
+
+        // Each pair's absence state at the new cutoff: the old one plus the
+        // pair's rows being archived, which come first in its row list.
+        for (int studentCode = 0; studentCode < studentIds.size(); studentCode++) {
+            CodeMap<IntList> pairRows = rowsByStudentSubject.get(studentCode);
+            for (int subjectCode = 0; pairRows != null && subjectCode < pairRows.capacity(); subjectCode++) {
+                IntList timeline = pairRows.get(subjectCode);
+                if (timeline == null) {
+                    continue;
+                }
+                AbsencePattern pattern = absencePatterns.get(studentCode).get(subjectCode);
+                AbsencePattern archivedState = pattern.copyArchived();
+                for (int i = 0; i < timeline.size() && attendanceRecords.getEpochDay(timeline.get(i)) < cutoffDay;
+                     i++) {
+                    int row = timeline.get(i);
+                    archivedState.record(attendanceRecords.getEpochDay(row), attendanceRecords.isPresent(row));
+                }
+                pattern.setArchived(archivedState);
+            }
+        }
+
+        // Publish the archive before dropping rows, so a query always finds
+        // each mark on one side of the cutoff or the other.
+        for (AttendanceSegment partition : partitions) {
+            archive.attach(partition);
+        }
+        archive.setCutoffDay(cutoffDay);
+        attendanceRecords.retainRows(keptSegment);
+
+        CodeMap<IntList> keptByStudent = new CodeMap<>(rowsByStudent.capacity());
+        CodeMap<CodeMap<IntList>> keptByStudentSubject = new CodeMap<>(rowsByStudentSubject.capacity());
+        for (int studentCode = 0; studentCode < studentIds.size(); studentCode++) {
+            IntList rows = renumber(rowsByStudent.get(studentCode), firstRow, keptRows);
+            if (rows != null) {
+                keptByStudent.put(studentCode, rows);
+            }
+            CodeMap<IntList> pairRows = rowsByStudentSubject.get(studentCode);
+            if (pairRows != null) {
+                CodeMap<IntList> keptPairRows = new CodeMap<>(pairRows.capacity());
+                for (int subjectCode = 0; subjectCode < pairRows.capacity(); subjectCode++) {
+                    IntList subjectRows = renumber(pairRows.get(subjectCode), firstRow, keptRows);
+                    if (subjectRows != null) {
+                        keptPairRows.put(subjectCode, subjectRows);
+                    }
+                }
+                keptByStudentSubject.put(studentCode, keptPairRows);
+            }
+        }
+        ConcurrentHashMap<Integer, IntList> keptByDate = new ConcurrentHashMap<>();
+        for (Map.Entry<Integer, IntList> day : rowsByDate.entrySet()) {
+            IntList rows = renumber(day.getValue(), firstRow, keptRows);
+            if (rows != null) {
+                keptByDate.put(day.getKey(), rows);
+            }
+        }
+        CodeMap<ConcurrentSkipListMap<Integer, IntList>> keptBySubject = new CodeMap<>(rowsBySubject.capacity());
+        for (int subjectCode = 0; subjectCode < subjectIds.size(); subjectCode++) {
+            ConcurrentSkipListMap<Integer, IntList> days = rowsBySubject.get(subjectCode);
+            if (days == null) {
+                continue;
+            }
+            ConcurrentSkipListMap<Integer, IntList> keptDays = new ConcurrentSkipListMap<>();
+            for (Map.Entry<Integer, IntList> day : days.tailMap(cutoffDay).entrySet()) {
+                keptDays.put(day.getKey(), renumber(day.getValue(), firstRow, keptRows));
+            }
+            keptBySubject.put(subjectCode, keptDays);
+        }
+        MarkIndex keptMarks = new MarkIndex(attendanceRecords);
+        for (int row = size; row < attendanceRecords.size(); row++) {
+            keptMarks.put(row);
+        }
+        rowsByStudent = keptByStudent;
+        rowsByStudentSubject = keptByStudentSubject;
+        rowsByDate = keptByDate;
+        rowsBySubject = keptBySubject;
+        markIndex = keptMarks;
+
+        for (int subjectCode = 0; subjectCode < subjectIds.size(); subjectCode++) {
+            ConcurrentSkipListMap<Integer, AttendanceBitmap> sessions = sessionsBySubject.get(subjectCode);
+            if (sessions != null) {
+                sessions.headMap(cutoffDay).clear();
+            }
+        }
+        // Archived lists come back in a different order.
+        recordCache.clear();
+        return archived;
+    }
+
+    // The kept rows of a row list under their new numbers, in the same order,
+    // or null if none were kept.
+    private static IntList renumber(IntList rows, int firstRow, int[] keptRows) {
+        IntList kept = null;
+        for (int i = 0; rows != null && i < rows.size(); i++) {
+            int row = keptRows[rows.get(i) - firstRow];
+            if (row >= 0) {
+                if (kept == null) {
+                    kept = new IntList();
+                }
+                kept.add(row);
+            }
+        }
+        return kept;
+    }
+
+    // Students are written in dictionary-code order, so the codes stored in
+    // the segments resolve to the same students when the snapshot is read.
+    // Marks must already be sealed into segments; only their names are written.
+    public synchronized void writeSnapshot(DataOutput out) throws IOException {
+        if (attendanceRecords.getSegmentedSize() != attendanceRecords.size()) {
+            throw new IllegalStateException("Attendance records must be sealed before a snapshot");
+        }
+
+        out.writeInt(studentIds.size());
+        for (int code = 0; code < studentIds.size(); code++) {
+            Student student = students.get(code);
+            out.writeUTF(student.getStudentId());
+            out.writeUTF(student.getName());
+            out.writeUTF(student.getEmail());
+            out.writeUTF(student.getDepartment());
+        }
+
+        out.writeInt(subjectIds.size());
+        for (int code = 0; code < subjectIds.size(); code++) {
+            out.writeUTF(subjectIds.symbolOf(code));
+        }
+
+        List<AttendanceSegment> segments = attendanceRecords.getSegments();
+        out.writeInt(segments.size());
+        for (AttendanceSegment segment : segments) {
+            out.writeUTF(segment.getPath().getFileName().toString());
+            out.writeInt(segment.size());
+        }
+
+        // Segment rows whose status was overwritten after they were sealed.
+        int[] changedRows = attendanceRecords.getPresenceChanges();
+        out.writeInt(changedRows.length);
+        for (int row : changedRows) {
+            out.writeInt(row);
+        }
+
+        out.writeInt(archive.getCutoffDay());
+        out.writeInt(archive.getPartitionCount());
+        for (int partition = 0; partition < archive.getPartitionCount(); partition++) {
+            out.writeUTF(archive.getPartitionPath(partition).getFileName().toString());
+            out.writeInt(archive.getPartitionSize(partition));
+        }
+
+        // The aggregates, so a restart neither re-counts every row nor reads
+        // the archive: each pair's counter and absence pattern, then the
+        // subject and department rollups. Student and department counters
+        // are sums of the pair counters.
+        for (int studentCode = 0; studentCode < studentIds.size(); studentCode++) {
+            CodeMap<AttendanceCounter> counters = subjectCounters.get(studentCode);
+            int pairs = 0;
+            for (int subjectCode = 0; counters != null && subjectCode < counters.capacity(); subjectCode++) {
+                if (counters.get(subjectCode) != null) {
+                    pairs++;
+                }
+            }
+            out.writeInt(pairs);
+            for (int subjectCode = 0; counters != null && subjectCode < counters.capacity(); subjectCode++) {
+                AttendanceCounter counter = counters.get(subjectCode);
+                if (counter != null) {
+                    out.writeInt(subjectCode);
+                    out.writeInt(counter.getPresentCount());
+                    out.writeInt(counter.getTotalCount());
+                    absencePatterns.get(studentCode).get(subjectCode).writeTo(out);
+                }
+            }
+        }
+        writeRollups(out, subjectRollups, subjectIds.size());
+        writeRollups(out, departmentRollups, departmentIds.size());
+    }
+
+    private static void writeRollups(DataOutput out, CodeMap<AttendanceRollup> rollups, int count)
+            throws IOException {
+        for (int code = 0; code < count; code++) {
+            AttendanceRollup rollup = rollups.get(code);
+            out.writeBoolean(rollup != null);
+            if (rollup != null) {
+                rollup.writeDays(out);
+            }
+        }
+    }
+
+    private static void readRollups(DataInput in, CodeMap<AttendanceRollup> rollups, int count)
+            throws IOException {
+        for (int code = 0; code < count; code++) {
+            if (in.readBoolean()) {
+                rollups.computeIfAbsent(code, k -> new AttendanceRollup()).readDays(in);
+            }
+        }
+    }
+
+    public long readSnapshot(DataInput in, Path directory) throws IOException {
+        return readSnapshot(in, directory, true, true, true);
+    }
+
+    public long readSnapshot(DataInput in, Path directory, boolean withPresenceChanges) throws IOException {
+        return readSnapshot(in, directory, withPresenceChanges, false, false);
+    }
+
+    public long readSnapshot(DataInput in, Path directory, boolean withPresenceChanges,
+                             boolean withArchive) throws IOException {
+        return readSnapshot(in, directory, withPresenceChanges, withArchive, false);
+    }
+
+    // Snapshots written before marks could be overwritten have no presence
+    // changes, those written before archiving have no archive, and those
+    // written before the aggregates were saved have to rebuild them from
+    // every row, archived ones included. With saved aggregates the row lists,
+    // mark index and session bitmaps are built after this returns; see
+    // indexRestoredRows.
+    public synchronized long readSnapshot(DataInput in, Path directory, boolean withPresenceChanges,
+                                          boolean withArchive, boolean withAggregates) throws IOException {
+        indexRestoredRows();
+        int studentCount = in.readInt();
+        for (int i = 0; i < studentCount; i++) {
+            addStudent(new Student(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF()));
+        }
+
+        int subjectCount = in.readInt();
+        for (int i = 0; i < subjectCount; i++) {
+            addSubject(in.readUTF());
+        }
+
+        int firstRow = attendanceRecords.size();
+        int segmentCount = in.readInt();
+        for (int i = 0; i < segmentCount; i++) {
+            Path path = directory.resolve(in.readUTF());
+            AttendanceSegment segment = AttendanceSegment.open(path);
+            if (segment.size() != in.readInt()) {
+                throw new IOException("Attendance segment does not match snapshot: " + path);
+            }
+            attendanceRecords.attachSegment(segment);
+        }
+
+        if (withPresenceChanges) {
+            int[] changedRows = new int[in.readInt()];
+            for (int i = 0; i < changedRows.length; i++) {
+                changedRows[i] = in.readInt();
+            }
+            attendanceRecords.restorePresenceChanges(changedRows);
+        }
+
+        // Archived marks only feed the aggregates, oldest partition first so
+        // absence patterns see them in date order.
+        long archived = 0;
+        if (withArchive) {
+            int cutoffDay = in.readInt();
+            int partitionCount = in.readInt();
+            for (int i = 0; i < partitionCount; i++) {
+                Path path = directory.resolve(in.readUTF());
+                AttendanceSegment partition = AttendanceSegment.open(path);
+                if (partition.size() != in.readInt()) {
+                    throw new IOException("Archived attendance does not match snapshot: " + path);
+                }
+                archive.attach(partition);
+                archived += partition.size();
+                if (withAggregates) {
+                    continue;
+                }
+                for (int record = 0; record < partition.size(); record++) {
+                    int subjectCode = partition.getSubjectCode(record);
+                    recordAggregates(partition.getStudentCode(record), subjectCode, partition.getEpochDay(record),
+                                     partition.isPresent(record),
+                                     subjectRollups.computeIfAbsent(subjectCode, k -> new AttendanceRollup()));
+                }
+            }
+            archive.setCutoffDay(cutoffDay);
+            // So far the patterns hold archived marks only.
+            for (int studentCode = 0; !withAggregates && studentCode < studentIds.size(); studentCode++) {
+                CodeMap<AbsencePattern> patterns = absencePatterns.get(studentCode);
+                for (int subjectCode = 0; patterns != null && subjectCode < patterns.capacity(); subjectCode++) {
+                    AbsencePattern pattern = patterns.get(subjectCode);
+                    if (pattern != null) {
+                        pattern.setArchived();
+                    }
+                }
+            }
+        }
+
+        if (withAggregates) {
+            readAggregates(in);
+            unindexedFrom = firstRow;
+            unindexedTo = attendanceRecords.size();
+            rowsUnindexed = unindexedFrom < unindexedTo;
+        } else {
+            indexRows(firstRow, attendanceRecords.size());
+        }
+        // Restored marks are not news; only changes after this raise alerts.
+        takeRaisedAlerts();
+        return studentCount + subjectCount + archived + attendanceRecords.size() - firstRow;
+    }
+
+    // Version 1 snapshots held every mark inline, before segment files
+    // existed. The rows go onto the heap as stored, duplicates included, and
+    // the next snapshot seals them.
+    public synchronized long readLegacySnapshot(DataInput in) throws IOException {
+        indexRestoredRows();
+        int studentCount = in.readInt();
+        int[] studentCodes = new int[studentCount];
+        for (int i = 0; i < studentCount; i++) {
+            Student student = new Student(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF());
+            addStudent(student);
+            studentCodes[i] = studentIds.codeOf(student.getStudentId());
+        }
+
+        int subjectCount = in.readInt();
+        int[] subjectCodes = new int[subjectCount];
+        for (int i = 0; i < subjectCount; i++) {
+            String subject = in.readUTF();
+            addSubject(subject);
+            subjectCodes[i] = subjectIds.codeOf(subject);
+        }
+
+        int firstRow = attendanceRecords.size();
+        int rowCount = in.readInt();
+        for (int i = 0; i < rowCount; i++) {
+            int studentCode = studentCodes[in.readInt()];
+            int subjectCode = subjectCodes[in.readInt()];
+            attendanceRecords.append(studentCode, subjectCode, in.readInt(), in.readBoolean());
+        }
+        indexRows(firstRow, attendanceRecords.size());
+        takeRaisedAlerts();
+        return (long) studentCount + subjectCount + rowCount;
+    }
+
+    // Each pair's counter and absence pattern as written by writeSnapshot,
+    // summed into the student and department counters, then the rollups.
+    private void readAggregates(DataInput in) throws IOException {
+        for (int studentCode = 0; studentCode < studentIds.size(); studentCode++) {
+            int pairs = in.readInt();
+            int departmentCode = studentDepartments.get(studentCode);
+            for (int i = 0; i < pairs; i++) {
+                int subjectCode = in.readInt();
+                int present = in.readInt();
+                int total = in.readInt();
+                subjectCounters.computeIfAbsent(studentCode, k -> new CodeMap<>(4))
+                        .computeIfAbsent(subjectCode, k -> new AttendanceCounter()).add(present, total);
+                studentCounters.computeIfAbsent(studentCode, k -> new AttendanceCounter()).add(present, total);
+                departmentCounters.computeIfAbsent(departmentCode, k -> new AttendanceCounter()).add(present, total);
+                departmentSubjectCounters.computeIfAbsent(departmentCode, k -> new CodeMap<>())
+                        .computeIfAbsent(subjectCode, k -> new AttendanceCounter()).add(present, total);
+                AbsencePattern pattern = absencePatterns.computeIfAbsent(studentCode, k -> new CodeMap<>(4))
+                        .computeIfAbsent(subjectCode, k -> new AbsencePattern());
+                pattern.readFrom(in);
+                checkAbsenceRules(pattern, studentCode, subjectCode, false);
+            }
+            AttendanceCounter counter = studentCounters.get(studentCode);
+            if (counter != null) {
+                percentageIndex.update(studentCode, 0, 0, counter.getPresentCount(), counter.getTotalCount());
+            }
+        }
+        readRollups(in, subjectRollups, subjectIds.size());
+        readRollups(in, departmentRollups, departmentIds.size());
+    }
+
+    // Builds the row lists, mark index and session bitmaps for rows restored
+    // with saved aggregates. startRowIndexing does it in the background, so
+    // opening returns at once; until it is done, writers run it themselves
+    // under the lock and readers wait for it in awaitRowIndexes. Called
+    // holding the lock.
+    private void indexRestoredRows() {
+        if (!rowsUnindexed) {
+            return;
+        }
+        for (int row = unindexedFrom; row < unindexedTo; row++) {
+            markIndex.put(row);
+            indexRowLists(row, attendanceRecords.getStudentCode(row), attendanceRecords.getSubjectCode(row),
+                          attendanceRecords.getEpochDay(row), attendanceRecords.isPresent(row));
+        }
+        rowsUnindexed = false;
+    }
+
+    // Indexes rows restored by readSnapshot on a daemon thread, so the first
+    // query or mark after opening need not wait for all of them. Counts,
+    // rankings, rollups and alerts come with the snapshot and never wait.
+    public void startRowIndexing() {
+        if (rowsUnindexed) {
+            Thread indexer = new Thread(this::awaitRowIndexes, "attendance-row-indexer");
+            indexer.setDaemon(true);
+            indexer.start();
+        }
+    }
+
+    // For queries that read the row lists or session bitmaps: one volatile
+    // read once the restored rows are indexed.
+    private void awaitRowIndexes() {
+        if (rowsUnindexed) {
+            synchronized (this) {
+                indexRestoredRows();
+            }
+        }
+    }
+
+    // Rebuilds the indexes and aggregates for rows restored from segments.
+    private void indexRows(int firstRow, int endRow) {
+        for (int row = firstRow; row < endRow; row++) {
+            markIndex.put(row);
+            indexRow(row, attendanceRecords.getStudentCode(row), attendanceRecords.getSubjectCode(row),
+                     attendanceRecords.getEpochDay(row), attendanceRecords.isPresent(row));
+        }
+    }
+
+    // Not synchronized: each call below takes the lock itself, so absence
+    // alerts reach listeners after it is released.
     public void loadSampleData() {
         addStudent(new Student("S001", "Alice Johnson", "alice@example.com", "Computer Science"));
         addStudent(new Student("S002", "Bob Smith", "bob@example.com", "Electronics"));
@@ -206,4 +2123,58 @@ public class AttendanceManager {
             }
         }
     }
+
+    // Synthetic data at any scale, for benchmarks and load tests:
+    // studentCount students over eight departments, subjectCount subjects,
+    // and a mark for every student in every subject on each of dayCount
+    // days ending today, recorded in date order. The same seed always
+    // gives the same names and marks.
+    public void loadSampleData(int studentCount, int subjectCount, int dayCount, long seed) {
+        String[] firstNames = {"Alice", "Bob", "Charlie", "Diana", "Eve", "Frank", "Grace", "Hugo",
+                               "Ivy", "Jack", "Karen", "Leo", "Maya", "Noah", "Olivia", "Paul"};
+        String[] lastNames = {"Johnson", "Smith", "Brown", "Prince", "Williams", "Jones", "Garcia", "Miller",
+                              "Davis", "Lopez", "Wilson", "Moore", "Taylor", "Clark", "Lewis", "Walker"};
+        String[] departments = {"Computer Science", "Electronics", "Mechanical", "Civil",
+                                "Electrical", "Chemical", "Mathematics", "Physics"};
+        Random random = new Random(seed);
+
+        String[] studentIds = new String[studentCount];
+        for (int i = 0; i < studentCount; i++) {
+            studentIds[i] = String.format("S%07d", i + 1);
+            String name = firstNames[random.nextInt(firstNames.length)] + " "
+                    + lastNames[random.nextInt(lastNames.length)];
+            addStudent(new Student(studentIds[i], name, "student" + (i + 1) + "@example.com",
+                                   departments[i % departments.length]));
+        }
+        String[] subjectNames = new String[subjectCount];
+        for (int i = 0; i < subjectCount; i++) {
+            subjectNames[i] = "Subject " + (i + 1);
+            addSubject(subjectNames[i]);
+        }
+
+        int batchSize = 8192;
+        String[] batchStudents = new String[batchSize];
+        int[] batchDays = new int[batchSize];
+        boolean[] batchPresent = new boolean[batchSize];
+        String[] batchSubjects = new String[batchSize];
+        int batch = 0;
+        int lastDay = (int) LocalDate.now().toEpochDay();
+        for (int day = lastDay - dayCount + 1; day <= lastDay; day++) {
+            for (String subject : subjectNames) {
+                for (String studentId : studentIds) {
+                    batchStudents[batch] = studentId;
+                    batchDays[batch] = day;
+                    batchPresent[batch] = random.nextInt(100) < 75;
+                    batchSubjects[batch] = subject;
+                    if (++batch == batchSize) {
+                        importAttendance(batchStudents, batchDays, batchPresent, batchSubjects, batch);
+                        batch = 0;
+                    }
+                }
+            }
+        }
+        if (batch > 0) {
+            importAttendance(batchStudents, batchDays, batchPresent, batchSubjects, batch);
+        }
+    }
 }
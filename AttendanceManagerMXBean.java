@@ -0,0 +1,33 @@
+// Size and memory figures for one AttendanceManager, registered with the
+// platform MBean server by AttendanceManager.registerMBeans.
+public interface AttendanceManagerMXBean {
+    int getStudentCount();
+
+    int getSubjectCount();
+
+    int getDepartmentCount();
+
+    int getRecordCount();
+
+    int getSegmentCount();
+
+    long getArchivedRecordCount();
+
+    int getArchivePartitionCount();
+
+    long getArchiveCacheHits();
+
+    long getArchiveCacheMisses();
+
+    long getRecordCacheHits();
+
+    long getRecordCacheMisses();
+
+    double getRecordCacheHitRatio();
+
+    long getRecordCacheEvictions();
+
+    long getEstimatedHeapBytes();
+
+    void resetMetrics();
+}
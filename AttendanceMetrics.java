@@ -0,0 +1,62 @@
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+
+// One latency histogram per AttendanceManager operation. Query methods are
+// grouped by what they read, so related overloads share a histogram.
+public class AttendanceMetrics {
+    public enum Operation {
+        MARK_ATTENDANCE("markAttendance"),
+        MARK_CLASS_ATTENDANCE("markClassAttendance"),
+        IMPORT_ATTENDANCE("importAttendance"),
+        ATTENDANCE_BY_STUDENT("attendanceByStudent"),
+        ATTENDANCE_BY_DATE("attendanceByDate"),
+        ATTENDANCE_BY_SUBJECT("attendanceBySubject"),
+        ATTENDANCE_PERCENTAGE("attendancePercentage"),
+        DEPARTMENT_PERCENTAGE("departmentPercentage"),
+        PERIOD_ATTENDANCE("periodAttendance"),
+        ATTENDANCE_TREND("attendanceTrend"),
+        SESSION_QUERY("sessionQuery"),
+        LOW_ATTENDANCE("lowAttendance"),
+        STUDENTS_BY_NAME("studentsByName"),
+        ABSENCE_ALERTS("absenceAlerts"),
+        REPORT("generateReport");
+
+        private final String displayName;
+
+        Operation(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private final EnumMap<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+
+    public AttendanceMetrics() {
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram(operation.getDisplayName()));
+        }
+    }
+
+    // Records the time since startNanos, a System.nanoTime() reading.
+    public void record(Operation operation, long startNanos) {
+        latencies.get(operation).record(System.nanoTime() - startNanos);
+    }
+
+    public LatencyHistogram getLatency(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    public List<LatencyHistogram> getLatencies() {
+        return new ArrayList<>(latencies.values());
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : latencies.values()) {
+            histogram.reset();
+        }
+    }
+}
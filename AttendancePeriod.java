@@ -0,0 +1,36 @@
+import java.time.LocalDate;
+
+// Present and total marks over a date range, inclusive at both ends.
+public class AttendancePeriod {
+    private LocalDate from;
+    private LocalDate to;
+    private int presentCount;
+    private int totalCount;
+
+    public AttendancePeriod(LocalDate from, LocalDate to, int presentCount, int totalCount) {
+        this.from = from;
+        this.to = to;
+        this.presentCount = presentCount;
+        this.totalCount = totalCount;
+    }
+
+    public LocalDate getFrom() {
+        return from;
+    }
+
+    public LocalDate getTo() {
+        return to;
+    }
+
+    public int getPresentCount() {
+        return presentCount;
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    public double getPercentage() {
+        return totalCount == 0 ? 0.0 : (presentCount * 100.0) / totalCount;
+    }
+}
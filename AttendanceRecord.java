@@ -2,6 +2,8 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 
 public class AttendanceRecord {
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+
     private String studentId;
     private LocalDate date;
     private boolean isPresent;
@@ -48,9 +50,8 @@ public class AttendanceRecord {
 
     @Override
     public String toString() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy");
         return String.format("Student: %-10s | Date: %s | Subject: %-15s | Status: %s",
-                           studentId, date.format(formatter), subject,
+                           studentId, date.format(DATE_FORMATTER), subject,
                            isPresent ? "Present" : "Absent");
     }
 }
@@ -0,0 +1,3 @@
+public interface AttendanceRecordVisitor {
+    void visit(String studentId, int epochDay, boolean isPresent, String subject);
+}
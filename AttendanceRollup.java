@@ -0,0 +1,129 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Present/total counts for one subject or department, pre-aggregated by
+// day, week and month. A range is answered by covering it with whole
+// months and weeks and only counting single days at the edges, so a
+// semester costs a dozen or so lookups however many marks it holds.
+// Written by one thread at a time and read without locking.
+public class AttendanceRollup {
+    private final ConcurrentSkipListMap<Integer, AttendanceCounter> days = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<Integer, AttendanceCounter> weeks = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<Integer, AttendanceCounter> months = new ConcurrentSkipListMap<>();
+
+    public void record(int epochDay, boolean isPresent) {
+        counter(days, epochDay).record(isPresent);
+        counter(weeks, TimeBucket.WEEK.startOf(epochDay)).record(isPresent);
+        counter(months, TimeBucket.MONTH.startOf(epochDay)).record(isPresent);
+    }
+
+    // For a mark on epochDay overwritten with the opposite status.
+    public void changePresence(int epochDay, boolean isPresent) {
+        days.get(epochDay).changePresence(isPresent);
+        weeks.get(TimeBucket.WEEK.startOf(epochDay)).changePresence(isPresent);
+        months.get(TimeBucket.MONTH.startOf(epochDay)).changePresence(isPresent);
+    }
+
+    // Only the days are written; readDays sums them into weeks and months again.
+    public void writeDays(DataOutput out) throws IOException {
+        out.writeInt(days.size());
+        for (Map.Entry<Integer, AttendanceCounter> day : days.entrySet()) {
+            out.writeInt(day.getKey());
+            out.writeInt(day.getValue().getPresentCount());
+            out.writeInt(day.getValue().getTotalCount());
+        }
+    }
+
+    public void readDays(DataInput in) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int epochDay = in.readInt();
+            int present = in.readInt();
+            int total = in.readInt();
+            counter(days, epochDay).add(present, total);
+            counter(weeks, TimeBucket.WEEK.startOf(epochDay)).add(present, total);
+            counter(months, TimeBucket.MONTH.startOf(epochDay)).add(present, total);
+        }
+    }
+
+    public AttendancePeriod getRange(LocalDate from, LocalDate to) {
+        int last = (int) to.toEpochDay();
+        int present = 0;
+        int total = 0;
+        int day = (int) from.toEpochDay();
+        while (day <= last) {
+            TimeBucket bucket = TimeBucket.DAY;
+            if (TimeBucket.MONTH.startOf(day) == day && TimeBucket.MONTH.nextStart(day) - 1 <= last) {
+                bucket = TimeBucket.MONTH;
+            } else if (TimeBucket.WEEK.startOf(day) == day && day + 6 <= last) {
+                bucket = TimeBucket.WEEK;
+            }
+            AttendanceCounter counter = bucketsOf(bucket).get(day);
+            if (counter != null) {
+                // Present first: record() bumps total before present, so a mark
+                // landing in between can only leave present short, never over total.
+                present += counter.getPresentCount();
+                total += counter.getTotalCount();
+            }
+            day = bucket.nextStart(day);
+        }
+        return new AttendancePeriod(from, to, present, total);
+    }
+
+    // One period per bucket with any marks that overlaps [from, to]. Buckets
+    // at the edges are clipped to the range.
+    public List<AttendancePeriod> getTrend(TimeBucket bucket, LocalDate from, LocalDate to) {
+        List<AttendancePeriod> trend = new ArrayList<>();
+        int first = (int) from.toEpochDay();
+        int last = (int) to.toEpochDay();
+        if (first > last) {
+            return trend;
+        }
+        for (Map.Entry<Integer, AttendanceCounter> entry
+                : bucketsOf(bucket).subMap(bucket.startOf(first), true, last, true).entrySet()) {
+            int start = entry.getKey();
+            int end = bucket.nextStart(start) - 1;
+            if (start >= first && end <= last) {
+                AttendanceCounter counter = entry.getValue();
+                // Present before total, as in getRange.
+                int present = counter.getPresentCount();
+                int total = counter.getTotalCount();
+                trend.add(new AttendancePeriod(LocalDate.ofEpochDay(start), LocalDate.ofEpochDay(end),
+                                               present, total));
+            } else {
+                AttendancePeriod clipped = getRange(LocalDate.ofEpochDay(Math.max(start, first)),
+                                                    LocalDate.ofEpochDay(Math.min(end, last)));
+                if (clipped.getTotalCount() > 0) {
+                    trend.add(clipped);
+                }
+            }
+        }
+        return trend;
+    }
+
+    private ConcurrentSkipListMap<Integer, AttendanceCounter> bucketsOf(TimeBucket bucket) {
+        switch (bucket) {
+            case WEEK:
+                return weeks;
+            case MONTH:
+                return months;
+            default:
+                return days;
+        }
+    }
+
+    private static AttendanceCounter counter(ConcurrentSkipListMap<Integer, AttendanceCounter> buckets, int start) {
+        AttendanceCounter counter = buckets.get(start);
+        if (counter == null) {
+            counter = new AttendanceCounter();
+            buckets.put(start, counter);
+        }
+        return counter;
+    }
+}
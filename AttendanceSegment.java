@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntUnaryOperator;
+
+// Immutable, memory-mapped file of attendance rows.
+//
+// Header (32 bytes, big-endian):
+//   int magic, int version, int recordBytes, int recordCount,
+//   int minEpochDay, int maxEpochDay, 8 reserved bytes
+// Record (12 bytes each, fixed width):
+//   int studentCode, int epochDay, int (subjectCode << 1 | present)
+//
+// Rows are read straight from the mapping; nothing is copied onto the heap.
+public class AttendanceSegment {
+    private static final int MAGIC = 0x41545347;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int RECORD_BYTES = 12;
+    private static final int MAX_RECORDS = (Integer.MAX_VALUE - HEADER_BYTES) / RECORD_BYTES;
+    private static final int WRITE_BUFFER_RECORDS = 4096;
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int recordCount;
+    private final int minEpochDay;
+    private final int maxEpochDay;
+
+    private AttendanceSegment(Path path, MappedByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getInt(8) != RECORD_BYTES) {
+            throw new IOException("Unrecognised attendance segment: " + path);
+        }
+        this.recordCount = buffer.getInt(12);
+        this.minEpochDay = buffer.getInt(16);
+        this.maxEpochDay = buffer.getInt(20);
+        if (buffer.capacity() < HEADER_BYTES + (long) recordCount * RECORD_BYTES) {
+            throw new IOException("Truncated attendance segment: " + path);
+        }
+    }
+
+    public static AttendanceSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new AttendanceSegment(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // Writes rows [fromRow, toRow) of the store to a new segment file and maps
+    // it. Neither write syncs the file: see sync().
+    public static AttendanceSegment write(Path path, AttendanceStore store, int fromRow, int toRow) throws IOException {
+        if (toRow < fromRow) {
+            throw new IllegalArgumentException("Invalid segment row range: " + fromRow + " to " + toRow);
+        }
+        return write(path, store, toRow - fromRow, record -> fromRow + record);
+    }
+
+    // Writes the listed rows of the store, in list order, to a new segment file and maps it.
+    public static AttendanceSegment write(Path path, AttendanceStore store, IntList rows) throws IOException {
+        return write(path, store, rows.size(), rows::get);
+    }
+
+    private static AttendanceSegment write(Path path, AttendanceStore store, int count, IntUnaryOperator rowOf)
+            throws IOException {
+        if (count > MAX_RECORDS) {
+            throw new IllegalArgumentException("Too many rows for one segment: " + count);
+        }
+
+        int minDay = Integer.MAX_VALUE;
+        int maxDay = Integer.MIN_VALUE;
+        for (int record = 0; record < count; record++) {
+            int epochDay = store.getEpochDay(rowOf.applyAsInt(record));
+            minDay = Math.min(minDay, epochDay);
+            maxDay = Math.max(maxDay, epochDay);
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer out = ByteBuffer.allocateDirect(RECORD_BYTES * WRITE_BUFFER_RECORDS).order(ByteOrder.BIG_ENDIAN);
+            out.putInt(MAGIC).putInt(VERSION).putInt(RECORD_BYTES).putInt(count)
+               .putInt(minDay).putInt(maxDay).putLong(0L);
+            for (int record = 0; record < count; record++) {
+                if (out.remaining() < RECORD_BYTES) {
+                    drain(channel, out);
+                }
+                int row = rowOf.applyAsInt(record);
+                out.putInt(store.getStudentCode(row));
+                out.putInt(store.getEpochDay(row));
+                out.putInt(store.getSubjectCode(row) << 1 | (store.isPresent(row) ? 1 : 0));
+            }
+            drain(channel, out);
+        }
+        return open(path);
+    }
+
+    // Forces a written segment to disk. The journal does this before writing
+    // the snapshot that names it, without holding the manager's lock.
+    public static void sync(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int size() {
+        return recordCount;
+    }
+
+    public int getMinEpochDay() {
+        return minEpochDay;
+    }
+
+    public int getMaxEpochDay() {
+        return maxEpochDay;
+    }
+
+    public int getStudentCode(int record) {
+        return buffer.getInt(offset(record));
+    }
+
+    public int getEpochDay(int record) {
+        return buffer.getInt(offset(record) + 4);
+    }
+
+    public int getSubjectCode(int record) {
+        return buffer.getInt(offset(record) + 8) >>> 1;
+    }
+
+    public boolean isPresent(int record) {
+        return (buffer.getInt(offset(record) + 8) & 1) != 0;
+    }
+
+    private int offset(int record) {
+        if (record < 0 || record >= recordCount) {
+            throw new IndexOutOfBoundsException("Record: " + record + ", Size: " + recordCount);
+        }
+        return HEADER_BYTES + record * RECORD_BYTES;
+    }
+}
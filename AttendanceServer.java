@@ -0,0 +1,335 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+
+// HTTP/JSON front end for one shared AttendanceManager, so check-in devices
+// and the web portal can use the same instance at once. Connections are
+// multiplexed by the JDK server's selector thread, so thousands of idle
+// keep-alive clients cost no threads. Requests run on a small fixed pool:
+// queries never lock and marks hold the manager's monitor only briefly,
+// so a handler never waits long.
+//
+// Parameters come from the query string or a form-encoded POST body; dates
+// are yyyy-MM-dd. Every response is JSON, errors as {"error": "..."}.
+//
+//   POST /mark               student, subject, date, status=present|absent
+//   POST /mark-class         subject, date, present=S001,S002, absent=S003
+//   POST /student            id, name, email, department
+//   POST /subject            name
+//   GET  /student            id
+//   GET  /students           optional prefix, offset, limit (default 50), in name order
+//   GET  /attendance         student | subject, optional from and to; or date
+//   GET  /low-attendance     threshold, optional subject
+//   GET  /absence-alerts
+//   GET  /stats
+public class AttendanceServer {
+    private static final int DEFAULT_PORT = 8080;
+    private static final String DEFAULT_DATA_DIRECTORY = "data";
+    private static final int BACKLOG = 4096;
+    private static final int MAX_BODY_BYTES = 1 << 20;
+    private static final int DEFAULT_PAGE_SIZE = 50;
+
+    private final AttendanceManager manager;
+    private final AttendanceJournal journal;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private interface Endpoint {
+        String handle(Map<String, String> params) throws IOException;
+    }
+
+    private static class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    // journal may be null for an in-memory server; otherwise every change is
+    // committed before it is acknowledged. Port 0 picks a free port.
+    public AttendanceServer(AttendanceManager manager, AttendanceJournal journal, int port, int threads)
+            throws IOException {
+        this.manager = manager;
+        this.journal = journal;
+        // Responses go out as separate header and body writes; without
+        // TCP_NODELAY each can wait ~40 ms for the client's delayed ACK.
+        // Read once, when the first server is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        this.executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+
+        route("/mark", null, this::mark);
+        route("/mark-class", null, this::markClass);
+        route("/student", this::student, this::addStudent);
+        route("/subject", null, this::addSubject);
+        route("/students", this::students, null);
+        route("/attendance", this::attendance, null);
+        route("/low-attendance", this::lowAttendance, null);
+        route("/absence-alerts", params -> AttendanceJson.absenceAlerts(manager.getAbsenceAlerts()), null);
+        route("/stats", params -> AttendanceJson.stats(manager), null);
+        route("/", null, null);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // Stops accepting requests, waits up to delaySeconds for those in flight,
+    // then releases the handler threads.
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // get or post may be null where the method is not supported.
+    private void route(String path, Endpoint get, Endpoint post) {
+        server.createContext(path, exchange -> {
+            int status = 200;
+            String body;
+            try {
+                if (!exchange.getRequestURI().getPath().equals(path) || (get == null && post == null)) {
+                    throw new HttpError(404, "Not found: " + exchange.getRequestURI().getPath());
+                }
+                Endpoint endpoint = exchange.getRequestMethod().equals("GET") ? get
+                        : exchange.getRequestMethod().equals("POST") ? post : null;
+                if (endpoint == null) {
+                    throw new HttpError(405, exchange.getRequestMethod() + " is not supported for " + path);
+                }
+                body = endpoint.handle(readParams(exchange));
+            } catch (HttpError e) {
+                status = e.status;
+                body = AttendanceJson.error(e.getMessage());
+            } catch (IllegalArgumentException | DateTimeException e) {
+                status = 400;
+                body = AttendanceJson.error(e.getMessage());
+            } catch (RuntimeException | IOException e) {
+                status = 500;
+                body = AttendanceJson.error(e.toString());
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+    }
+
+    private String mark(Map<String, String> params) throws IOException {
+        String status = required(params, "status");
+        boolean isPresent;
+        if (status.equalsIgnoreCase("present")) {
+            isPresent = true;
+        } else if (status.equalsIgnoreCase("absent")) {
+            isPresent = false;
+        } else {
+            throw new IllegalArgumentException("Invalid status: " + status);
+        }
+        manager.markAttendance(required(params, "student"), date(params, "date"), isPresent,
+                               required(params, "subject"));
+        commit();
+        return "{\"marked\":1}";
+    }
+
+    private String markClass(Map<String, String> params) throws IOException {
+        int marked = manager.markClassAttendance(required(params, "subject"), date(params, "date"),
+                                                 list(params, "present"), list(params, "absent"));
+        commit();
+        return "{\"marked\":" + marked + "}";
+    }
+
+    private String addStudent(Map<String, String> params) throws IOException {
+        manager.addStudent(new Student(required(params, "id"), required(params, "name"),
+                                       required(params, "email"), required(params, "department")));
+        commit();
+        return "{\"added\":1}";
+    }
+
+    private String addSubject(Map<String, String> params) throws IOException {
+        manager.addSubject(required(params, "name"));
+        commit();
+        return "{\"added\":1}";
+    }
+
+    private String student(Map<String, String> params) {
+        String studentId = required(params, "id");
+        Student student = manager.getStudent(studentId);
+        if (student == null) {
+            throw new HttpError(404, "Student not found: " + studentId);
+        }
+        return AttendanceJson.student(manager, student);
+    }
+
+    private String students(Map<String, String> params) {
+        String prefix = params.containsKey("prefix") ? params.get("prefix") : "";
+        int offset = params.containsKey("offset") ? Integer.parseInt(params.get("offset")) : 0;
+        int limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : DEFAULT_PAGE_SIZE;
+        List<Student> students = manager.searchStudentsByName(prefix, offset, limit);
+        return AttendanceJson.studentsPage(manager, offset, students);
+    }
+
+    private String attendance(Map<String, String> params) {
+        boolean ranged = params.containsKey("from") || params.containsKey("to");
+        LocalDate from = ranged ? date(params, "from") : null;
+        LocalDate to = ranged ? date(params, "to") : null;
+        List<AttendanceRecord> records;
+        if (params.containsKey("student")) {
+            String studentId = params.get("student");
+            records = ranged ? manager.getAttendanceByStudent(studentId, from, to)
+                             : manager.getAttendanceByStudent(studentId);
+        } else if (params.containsKey("subject")) {
+            String subject = params.get("subject");
+            records = ranged ? manager.getAttendanceBySubject(subject, from, to)
+                             : manager.getAttendanceBySubject(subject);
+        } else if (params.containsKey("date")) {
+            if (ranged) {
+                throw new IllegalArgumentException("A date query takes no from and to");
+            }
+            records = manager.getAttendanceByDate(date(params, "date"));
+        } else {
+            throw new IllegalArgumentException("One of student, subject or date is required");
+        }
+
+        return AttendanceJson.records(records);
+    }
+
+    private String lowAttendance(Map<String, String> params) {
+        double threshold = number(params, "threshold");
+        List<Student> students = params.containsKey("subject")
+                ? manager.getLowAttendanceStudentsBySubject(params.get("subject"), threshold)
+                : manager.getLowAttendanceStudents(threshold);
+        return AttendanceJson.students(manager, students);
+    }
+
+    // Changes are acknowledged only once durable. Concurrent requests share
+    // one fsync: the journal's committer writes every pending entry at once.
+    private void commit() throws IOException {
+        if (journal != null) {
+            journal.commit();
+        }
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        return value;
+    }
+
+    private static LocalDate date(Map<String, String> params, String name) {
+        return LocalDate.parse(required(params, name));
+    }
+
+    private static double number(Map<String, String> params, String name) {
+        return Double.parseDouble(required(params, name));
+    }
+
+    private static List<String> list(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> values = new ArrayList<>();
+        for (String item : value.split(",")) {
+            if (!item.trim().isEmpty()) {
+                values.add(item.trim());
+            }
+        }
+        return values;
+    }
+
+    private static Map<String, String> readParams(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseParams(exchange.getRequestURI().getRawQuery(), params);
+        try (InputStream in = exchange.getRequestBody()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                if (body.size() + read > MAX_BODY_BYTES) {
+                    throw new HttpError(413, "Request body larger than " + MAX_BODY_BYTES + " bytes");
+                }
+                body.write(buffer, 0, read);
+            }
+            if (body.size() > 0) {
+                parseParams(new String(body.toByteArray(), StandardCharsets.UTF_8), params);
+            }
+        }
+        return params;
+    }
+
+    private static void parseParams(String encoded, Map<String, String> params) throws UnsupportedEncodingException {
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+        for (String pair : encoded.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8").trim());
+        }
+    }
+
+    // java AttendanceServer [port] [dataDirectory] [threads]
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        String directory = args.length > 1 ? args[1] : DEFAULT_DATA_DIRECTORY;
+        int threads = args.length > 2 ? Integer.parseInt(args[2])
+                                       : Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+        AttendanceManager manager = new AttendanceManager();
+        AttendanceJournal journal = AttendanceJournal.open(Paths.get(directory), manager);
+        AttendanceServer server = new AttendanceServer(manager, journal, port, threads);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            try {
+                journal.snapshot();
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Error saving attendance data: " + e.getMessage());
+            }
+        }));
+        try {
+            manager.registerMBeans();
+        } catch (JMException e) {
+            System.err.println("Could not register JMX metrics: " + e.getMessage());
+        }
+        server.start();
+        System.out.printf("Serving %d students and %d records from %s on port %d (%d threads)%n",
+                          manager.getStudentCount(), manager.getRecordCount(),
+                          Paths.get(directory).toAbsolutePath(), server.getPort(), threads);
+    }
+}
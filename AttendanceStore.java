@@ -0,0 +1,315 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class AttendanceStore {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // One row per mark: student and subject are dictionary codes, the date is
+    // an epoch day and presence is one bit, about 12 bytes per row in total.
+    // Rows below baseSize live in memory-mapped segments; the columns hold
+    // the rows appended since the last segment was sealed.
+    //
+    // Rows are appended by one writer at a time (AttendanceManager holds its
+    // lock) and read without locking. The layout is replaced as a whole when
+    // it grows or is sealed, so a reader always sees a consistent one.
+    //
+    // Presence is the only value that changes after a row is written. Rows in
+    // memory flip their bit; segments are read-only, so a changed segment row
+    // is recorded in segmentFlips, one bit per row below baseSize, which is
+    // applied on read and persisted with the snapshot until a compaction
+    // rewrites the row.
+    //
+    // Row numbers start at firstRow. When older rows are archived, the rows
+    // kept are renumbered from size() on and the previous layout is held as
+    // retired, so a query that read a row list before the switch can still
+    // read its rows; it is dropped at the next switch.
+    private static final class Layout {
+        final Layout retired;
+        final int firstRow;
+        final AttendanceSegment[] segments;
+        final int[] segmentStarts;
+        final int baseSize;
+        final int[] studentColumn;
+        final int[] subjectColumn;
+        final int[] dayColumn;
+        final long[] presentBits;
+        final long[] segmentFlips;
+
+        Layout(Layout retired, int firstRow, AttendanceSegment[] segments, int[] segmentStarts, int baseSize,
+               long[] segmentFlips, int capacity) {
+            this(retired, firstRow, segments, segmentStarts, baseSize, segmentFlips, new int[capacity],
+                 new int[capacity], new int[capacity], new long[(capacity + 63) >> 6]);
+        }
+
+        Layout(Layout retired, int firstRow, AttendanceSegment[] segments, int[] segmentStarts, int baseSize,
+               long[] segmentFlips, int[] studentColumn, int[] subjectColumn, int[] dayColumn, long[] presentBits) {
+            this.retired = retired;
+            this.firstRow = firstRow;
+            this.segments = segments;
+            this.segmentStarts = segmentStarts;
+            this.baseSize = baseSize;
+            this.segmentFlips = segmentFlips;
+            this.studentColumn = studentColumn;
+            this.subjectColumn = subjectColumn;
+            this.dayColumn = dayColumn;
+            this.presentBits = presentBits;
+        }
+
+        int segmentOf(int row) {
+            int low = 0;
+            int high = segmentStarts.length - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (segmentStarts[mid] <= row) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        // Word of segmentFlips holding a row's bit. Words are aligned to
+        // multiples of 64 rows, so the bit is always 1L << row.
+        int flipWord(int row) {
+            return (row >> 6) - (firstRow >> 6);
+        }
+
+        static int flipWords(int firstRow, int baseSize) {
+            return ((baseSize + 63) >> 6) - (firstRow >> 6);
+        }
+    }
+
+    private final SymbolTable studentIds;
+    private final SymbolTable subjectIds;
+    private volatile Layout layout;
+    private volatile int size;
+
+    public AttendanceStore() {
+        this.studentIds = new SymbolTable();
+        this.subjectIds = new SymbolTable();
+        this.layout = new Layout(null, 0, new AttendanceSegment[0], new int[0], 0, new long[0], INITIAL_CAPACITY);
+    }
+
+    public SymbolTable getStudentIds() {
+        return studentIds;
+    }
+
+    public SymbolTable getSubjectIds() {
+        return subjectIds;
+    }
+
+    public int append(int studentCode, int subjectCode, int epochDay, boolean isPresent) {
+        Layout current = layout;
+        int index = size - current.baseSize;
+        if (index == current.studentColumn.length) {
+            current = grow(current);
+        }
+        current.studentColumn[index] = studentCode;
+        current.subjectColumn[index] = subjectCode;
+        current.dayColumn[index] = epochDay;
+        if (isPresent) {
+            current.presentBits[index >> 6] |= 1L << index;
+        }
+        int row = size;
+        size = row + 1;
+        return row;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getStudentCode(int row) {
+        Layout current = layoutOf(row);
+        if (row >= current.baseSize) {
+            return current.studentColumn[row - current.baseSize];
+        }
+        int segment = current.segmentOf(row);
+        return current.segments[segment].getStudentCode(row - current.segmentStarts[segment]);
+    }
+
+    public int getSubjectCode(int row) {
+        Layout current = layoutOf(row);
+        if (row >= current.baseSize) {
+            return current.subjectColumn[row - current.baseSize];
+        }
+        int segment = current.segmentOf(row);
+        return current.segments[segment].getSubjectCode(row - current.segmentStarts[segment]);
+    }
+
+    public int getEpochDay(int row) {
+        Layout current = layoutOf(row);
+        if (row >= current.baseSize) {
+            return current.dayColumn[row - current.baseSize];
+        }
+        int segment = current.segmentOf(row);
+        return current.segments[segment].getEpochDay(row - current.segmentStarts[segment]);
+    }
+
+    public boolean isPresent(int row) {
+        Layout current = layoutOf(row);
+        if (row >= current.baseSize) {
+            int index = row - current.baseSize;
+            return (current.presentBits[index >> 6] & (1L << index)) != 0;
+        }
+        int segment = current.segmentOf(row);
+        boolean flipped = (current.segmentFlips[current.flipWord(row)] & (1L << row)) != 0;
+        return current.segments[segment].isPresent(row - current.segmentStarts[segment]) != flipped;
+    }
+
+    // Overwrites a row's presence in place, for a repeated mark.
+    public void setPresent(int row, boolean isPresent) {
+        Layout current = layout;
+        if (row >= current.baseSize) {
+            int index = row - current.baseSize;
+            if (isPresent) {
+                current.presentBits[index >> 6] |= 1L << index;
+            } else {
+                current.presentBits[index >> 6] &= ~(1L << index);
+            }
+        } else if (isPresent(row) != isPresent) {
+            current.segmentFlips[current.flipWord(row)] ^= 1L << row;
+        }
+        // Volatile write publishes the change to readers.
+        layout = current;
+    }
+
+    // Segment rows whose presence has been overwritten, for the snapshot,
+    // counted from getFirstRow().
+    public int[] getPresenceChanges() {
+        Layout current = layout;
+        long[] flips = current.segmentFlips;
+        int firstWordRow = (current.firstRow >> 6) << 6;
+        int count = 0;
+        for (long word : flips) {
+            count += Long.bitCount(word);
+        }
+        int[] rows = new int[count];
+        int next = 0;
+        for (int word = 0; word < flips.length; word++) {
+            for (long bits = flips[word]; bits != 0; bits &= bits - 1) {
+                rows[next++] = firstWordRow + (word << 6) + Long.numberOfTrailingZeros(bits) - current.firstRow;
+            }
+        }
+        return rows;
+    }
+
+    // Reapplies getPresenceChanges() after the segments have been reattached.
+    public void restorePresenceChanges(int[] rows) {
+        Layout current = layout;
+        for (int relativeRow : rows) {
+            int row = current.firstRow + relativeRow;
+            if (relativeRow < 0 || row >= current.baseSize) {
+                throw new IllegalArgumentException("Not a segment row: " + relativeRow);
+            }
+            current.segmentFlips[current.flipWord(row)] ^= 1L << row;
+        }
+        layout = current;
+    }
+
+    public List<AttendanceSegment> getSegments() {
+        return Collections.unmodifiableList(Arrays.asList(layout.segments));
+    }
+
+    public int getSegmentedSize() {
+        return layout.baseSize;
+    }
+
+    // Number of the oldest row still stored; rows are numbered up to size().
+    public int getFirstRow() {
+        return layout.firstRow;
+    }
+
+    // Adds an existing segment as the next block of rows; only valid while no
+    // rows are held in memory, e.g. when restoring a snapshot.
+    public void attachSegment(AttendanceSegment segment) {
+        Layout current = layout;
+        if (size != current.baseSize) {
+            throw new IllegalStateException("Cannot attach a segment after in-memory rows");
+        }
+        addSegment(current, segment);
+    }
+
+    // Replaces the in-memory rows with a segment holding exactly those rows.
+    public void sealTail(AttendanceSegment segment) {
+        Layout current = layout;
+        if (segment.size() != size - current.baseSize) {
+            throw new IllegalArgumentException("Segment does not match the in-memory rows");
+        }
+        addSegment(current, segment);
+    }
+
+    // Replaces every row with a single segment holding all of them in order,
+    // with any overwritten presence already applied.
+    public void replaceAll(AttendanceSegment segment) {
+        Layout current = layout;
+        if (segment.size() != size - current.firstRow) {
+            throw new IllegalArgumentException("Segment does not match the stored rows");
+        }
+        layout = new Layout(current.retired, current.firstRow, new AttendanceSegment[] {segment},
+                            new int[] {current.firstRow}, size,
+                            new long[Layout.flipWords(current.firstRow, size)], INITIAL_CAPACITY);
+    }
+
+    // Switches to the rows kept after older ones were archived: kept holds
+    // them in their original order, or is null if none were kept, and they
+    // are numbered from size() on.
+    public void retainRows(AttendanceSegment kept) {
+        Layout current = layout;
+        Layout retired = new Layout(null, current.firstRow, current.segments, current.segmentStarts,
+                                    current.baseSize, current.segmentFlips, current.studentColumn,
+                                    current.subjectColumn, current.dayColumn, current.presentBits);
+        Layout retained = new Layout(retired, size, new AttendanceSegment[0], new int[0], size, new long[0],
+                                     INITIAL_CAPACITY);
+        if (kept == null) {
+            layout = retained;
+        } else {
+            addSegment(retained, kept);
+        }
+    }
+
+    private void addSegment(Layout current, AttendanceSegment segment) {
+        AttendanceSegment[] segments = Arrays.copyOf(current.segments, current.segments.length + 1);
+        int[] segmentStarts = Arrays.copyOf(current.segmentStarts, current.segmentStarts.length + 1);
+        segments[segments.length - 1] = segment;
+        segmentStarts[segmentStarts.length - 1] = current.baseSize;
+        int baseSize = current.baseSize + segment.size();
+        long[] segmentFlips = Arrays.copyOf(current.segmentFlips, Layout.flipWords(current.firstRow, baseSize));
+        layout = new Layout(current.retired, current.firstRow, segments, segmentStarts, baseSize, segmentFlips,
+                            INITIAL_CAPACITY);
+        size = baseSize;
+    }
+
+    private Layout layoutOf(int row) {
+        Layout current = layout;
+        return row < current.firstRow && current.retired != null ? current.retired : current;
+    }
+
+    public AttendanceRecord toRecord(int row) {
+        return new AttendanceRecord(studentIds.symbolOf(getStudentCode(row)),
+                                    LocalDate.ofEpochDay(getEpochDay(row)),
+                                    isPresent(row),
+                                    subjectIds.symbolOf(getSubjectCode(row)));
+    }
+
+    public long estimateBytes() {
+        Layout current = layout;
+        return 3L * Integer.BYTES * current.studentColumn.length
+                + (long) Long.BYTES * (current.presentBits.length + current.segmentFlips.length);
+    }
+
+    private Layout grow(Layout current) {
+        int newCapacity = current.studentColumn.length + (current.studentColumn.length >> 1);
+        Layout grown = new Layout(current.retired, current.firstRow, current.segments, current.segmentStarts,
+                                  current.baseSize, current.segmentFlips,
+                                  Arrays.copyOf(current.studentColumn, newCapacity),
+                                  Arrays.copyOf(current.subjectColumn, newCapacity),
+                                  Arrays.copyOf(current.dayColumn, newCapacity),
+                                  Arrays.copyOf(current.presentBits, (newCapacity + 63) >> 6));
+        layout = grown;
+        return grown;
+    }
+}
@@ -1,10 +1,23 @@
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.*;
+import javax.management.JMException;
 
 public class AttendanceSystem {
+    private static final String DATA_DIRECTORY = "data";
+    private static final String STUDENTS_CSV = "students.csv";
+    private static final String SUBJECTS_CSV = "subjects.csv";
+    private static final String ATTENDANCE_CSV = "attendance.csv";
+    private static final int PAGE_SIZE = 40;
+
     private AttendanceManager manager;
+    private AttendanceJournal journal;
     private Scanner scanner;
     private DateTimeFormatter dateFormatter;
 
@@ -19,11 +32,17 @@ public class AttendanceSystem {
         System.out.println("    ATTENDANCE MANAGEMENT SYSTEM");
         System.out.println("========================================\n");
 
-        System.out.print("Load sample data? (y/n): ");
-        String choice = scanner.nextLine().trim().toLowerCase();
-        if (choice.equals("y")) {
-            manager.loadSampleData();
-            System.out.println("\n✓ Sample data loaded successfully!");
+        openJournal();
+        registerMBeans();
+        manager.addAbsenceAlertListener(alert -> System.out.println("⚠ Absence alert: " + alert));
+
+        if (manager.getAllStudents().isEmpty()) {
+            System.out.print("Load sample data? (y/n): ");
+            String choice = scanner.nextLine().trim().toLowerCase();
+            if (choice.equals("y")) {
+                manager.loadSampleData();
+                System.out.println("\n✓ Sample data loaded successfully!");
+            }
         }
 
         boolean running = true;
@@ -65,6 +84,45 @@ public class AttendanceSystem {
                 case 11:
                     viewAttendanceReport();
                     break;
+                case 12:
+                    viewStudentsAbsentFromAllSessions();
+                    break;
+                case 13:
+                    markClassAttendance();
+                    break;
+                case 14:
+                    importCsv();
+                    break;
+                case 15:
+                    exportCsv();
+                    break;
+                case 16:
+                    viewAttendanceTrend();
+                    break;
+                case 17:
+                    viewDepartmentAttendance();
+                    break;
+                case 18:
+                    viewDepartmentLowAttendanceStudents();
+                    break;
+                case 19:
+                    viewAttendanceBands();
+                    break;
+                case 20:
+                    viewLowestAttendanceStudents();
+                    break;
+                case 21:
+                    viewSystemStats();
+                    break;
+                case 22:
+                    searchStudentsByName();
+                    break;
+                case 23:
+                    viewAbsenceAlerts();
+                    break;
+                case 24:
+                    archiveAttendance();
+                    break;
                 case 0:
                     System.out.println("\nThank you for using the Attendance Management System!");
                     running = false;
@@ -73,15 +131,63 @@ public class AttendanceSystem {
                     System.out.println("\n✗ Invalid choice! Please try again.");
             }
 
+            commitJournal();
+
             if (running && option != 0) {
                 System.out.print("\nPress Enter to continue...");
                 scanner.nextLine();
             }
         }
 
+        closeJournal();
         scanner.close();
     }
 
+    private void openJournal() {
+        try {
+            journal = AttendanceJournal.open(Paths.get(DATA_DIRECTORY), manager);
+            if (journal.getRecoveredEntries() > 0) {
+                System.out.printf("✓ Restored %d entries in %.1f ms (%.0f entries/sec)%n",
+                                  journal.getRecoveredEntries(), journal.getRecoveryNanos() / 1_000_000.0,
+                                  journal.getRecoveryRate());
+            }
+        } catch (IOException e) {
+            System.out.println("✗ Could not open attendance data: " + e.getMessage());
+            System.out.println("  Changes in this session will not be saved.");
+        }
+    }
+
+    private void registerMBeans() {
+        try {
+            manager.registerMBeans();
+        } catch (JMException e) {
+            System.out.println("✗ Could not register JMX metrics: " + e.getMessage());
+        }
+    }
+
+    private void commitJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.commit();
+        } catch (IOException e) {
+            System.out.println("\n✗ Error saving attendance data: " + e.getMessage());
+        }
+    }
+
+    private void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.snapshot();
+            journal.close();
+        } catch (IOException e) {
+            System.out.println("\n✗ Error saving attendance data: " + e.getMessage());
+        }
+    }
+
     private void displayMainMenu() {
         System.out.println("\n========================================");
         System.out.println("              MAIN MENU");
@@ -97,6 +203,19 @@ public class AttendanceSystem {
         System.out.println("9.  View All Students");
         System.out.println("10. View Low Attendance Students");
         System.out.println("11. Generate Complete Attendance Report");
+        System.out.println("12. View Students Absent From Every Class");
+        System.out.println("13. Mark Whole Class Attendance");
+        System.out.println("14. Import Data from CSV");
+        System.out.println("15. Export Data to CSV");
+        System.out.println("16. View Attendance Trend");
+        System.out.println("17. View Department Attendance");
+        System.out.println("18. View Department Low Attendance Students");
+        System.out.println("19. View Attendance Warning Bands");
+        System.out.println("20. View Lowest Attendance Students");
+        System.out.println("21. View System Stats");
+        System.out.println("22. Search Students by Name");
+        System.out.println("23. View Chronic Absence Alerts");
+        System.out.println("24. Archive Old Attendance");
         System.out.println("0.  Exit");
         System.out.println("========================================");
     }
@@ -194,6 +313,101 @@ public class AttendanceSystem {
         }
     }
 
+    private void markClassAttendance() {
+        System.out.println("\n--- Mark Whole Class Attendance ---");
+
+        List<String> subjects = manager.getAllSubjects();
+        if (subjects.isEmpty()) {
+            System.out.println("\n✗ No subjects available! Please add subjects first.");
+            return;
+        }
+
+        System.out.println("\nAvailable Subjects:");
+        for (int i = 0; i < subjects.size(); i++) {
+            System.out.println((i + 1) + ". " + subjects.get(i));
+        }
+
+        int subjectIndex = getIntInput("Select Subject (number): ") - 1;
+        if (subjectIndex < 0 || subjectIndex >= subjects.size()) {
+            System.out.println("\n✗ Invalid subject selection!");
+            return;
+        }
+
+        String subject = subjects.get(subjectIndex);
+
+        System.out.print("Enter Date (dd-MM-yyyy) or press Enter for today: ");
+        String dateStr = scanner.nextLine().trim();
+        LocalDate date = LocalDate.now();
+
+        if (!dateStr.isEmpty()) {
+            try {
+                date = LocalDate.parse(dateStr, dateFormatter);
+            } catch (DateTimeParseException e) {
+                System.out.println("\n✗ Invalid date format!");
+                return;
+            }
+        }
+
+        System.out.print("Enter Department (or press Enter for all students): ");
+        String department = scanner.nextLine().trim();
+
+        List<Student> roll;
+        if (department.isEmpty()) {
+            roll = manager.getStudentsSortedByName();
+        } else {
+            roll = new ArrayList<>();
+            for (String name : manager.getAllDepartments()) {
+                if (name.equalsIgnoreCase(department)) {
+                    roll.addAll(manager.getStudentsByDepartment(name));
+                }
+            }
+            // In code order from the index; a stable sort keeps that order among equal names.
+            roll.sort(Comparator.comparing(Student::getName, String.CASE_INSENSITIVE_ORDER));
+        }
+        if (roll.isEmpty()) {
+            System.out.println("\n✗ No students found!");
+            return;
+        }
+
+        System.out.println("\nClass Roll (" + roll.size() + " students):");
+        for (Student student : roll) {
+            System.out.println(student);
+        }
+
+        System.out.print("\nEnter IDs of ABSENT students (comma separated, Enter for none): ");
+        Set<String> absentIds = new LinkedHashSet<>();
+        for (String id : scanner.nextLine().split(",")) {
+            if (!id.trim().isEmpty()) {
+                absentIds.add(id.trim());
+            }
+        }
+
+        List<String> presentIds = new ArrayList<>();
+        Set<String> rollIds = new HashSet<>();
+        for (Student student : roll) {
+            rollIds.add(student.getStudentId());
+            if (!absentIds.contains(student.getStudentId())) {
+                presentIds.add(student.getStudentId());
+            }
+        }
+        for (String id : absentIds) {
+            if (!rollIds.contains(id)) {
+                System.out.println("\n✗ Student not in this class: " + id);
+                return;
+            }
+        }
+
+        try {
+            manager.markClassAttendance(subject, date, presentIds, absentIds);
+            System.out.println("\n✓ Class attendance marked successfully!");
+            System.out.println("  Subject: " + subject);
+            System.out.println("  Date: " + date.format(dateFormatter));
+            System.out.println("  Present: " + presentIds.size() + " | Absent: " + absentIds.size());
+        } catch (IllegalArgumentException e) {
+            System.out.println("\n✗ Error: " + e.getMessage());
+        }
+    }
+
     private void viewStudentAttendance() {
         System.out.println("\n--- View Student Attendance ---");
         System.out.print("Enter Student ID: ");
@@ -211,14 +425,15 @@ public class AttendanceSystem {
             return;
         }
 
-        System.out.println("\n" + student);
-        System.out.println("\nAttendance Records:");
-        System.out.println("----------------------------------------------------------");
-        for (AttendanceRecord record : records) {
-            System.out.println(record);
+        try (ReportWriter out = openReport()) {
+            out.line("");
+            out.student(student);
+            out.line("");
+            out.line("Attendance Records:");
+            writeRecords(out, records);
+        } catch (IOException e) {
+            System.out.println("\n✗ Error writing report: " + e.getMessage());
         }
-        System.out.println("----------------------------------------------------------");
-        System.out.println("Total Records: " + records.size());
     }
 
     private void viewAttendanceByDate() {
@@ -240,13 +455,13 @@ public class AttendanceSystem {
             return;
         }
 
-        System.out.println("\nAttendance Records for " + date.format(dateFormatter) + ":");
-        System.out.println("----------------------------------------------------------");
-        for (AttendanceRecord record : records) {
-            System.out.println(record);
+        try (ReportWriter out = openReport()) {
+            out.line("");
+            out.line("Attendance Records for " + date.format(dateFormatter) + ":");
+            writeRecords(out, records);
+        } catch (IOException e) {
+            System.out.println("\n✗ Error writing report: " + e.getMessage());
         }
-        System.out.println("----------------------------------------------------------");
-        System.out.println("Total Records: " + records.size());
     }
 
     private void viewAttendanceBySubject() {
@@ -277,13 +492,41 @@ public class AttendanceSystem {
             return;
         }
 
-        System.out.println("\nAttendance Records for " + subject + ":");
-        System.out.println("----------------------------------------------------------");
+        try (ReportWriter out = openReport()) {
+            out.line("");
+            out.line("Attendance Records for " + subject + ":");
+            writeRecords(out, records);
+        } catch (IOException e) {
+            System.out.println("\n✗ Error writing report: " + e.getMessage());
+        }
+    }
+
+    // Report output goes either to a file, at full speed, or to the console
+    // a page at a time.
+    private ReportWriter openReport() throws IOException {
+        System.out.print("Save to file (leave blank to view here): ");
+        String fileName = scanner.nextLine().trim();
+        if (fileName.isEmpty()) {
+            return new ReportWriter(Channels.newChannel(System.out), PAGE_SIZE, this::nextPage);
+        }
+        System.out.println("Writing report to " + Paths.get(fileName).toAbsolutePath());
+        return ReportWriter.toFile(Paths.get(fileName));
+    }
+
+    private boolean nextPage() {
+        System.out.print("-- More: press Enter to continue, or q to stop -- ");
+        return !scanner.nextLine().trim().equalsIgnoreCase("q");
+    }
+
+    private void writeRecords(ReportWriter out, List<AttendanceRecord> records) throws IOException {
+        out.line("----------------------------------------------------------");
         for (AttendanceRecord record : records) {
-            System.out.println(record);
+            if (!out.record(record)) {
+                break;
+            }
         }
-        System.out.println("----------------------------------------------------------");
-        System.out.println("Total Records: " + records.size());
+        out.line("----------------------------------------------------------");
+        out.line("Total Records: " + records.size());
     }
 
     private void viewAttendancePercentage() {
@@ -297,11 +540,11 @@ public class AttendanceSystem {
             return;
         }
 
-        double percentage = manager.calculateAttendancePercentage(studentId);
-        if (percentage == 0.0) {
+        if (manager.getMarkCount(studentId) == 0) {
             System.out.println("\n✗ No attendance records found for this student!");
             return;
         }
+        double percentage = manager.calculateAttendancePercentage(studentId);
 
         System.out.println("\n" + student);
         System.out.println("\nOverall Attendance: " + String.format("%.2f%%", percentage));
@@ -353,18 +596,45 @@ public class AttendanceSystem {
 
     private void viewAllStudents() {
         System.out.println("\n--- All Students (Sorted by Name) ---");
-        List<Student> students = manager.getStudentsSortedByName();
-
-        if (students.isEmpty()) {
+        if (manager.getStudentCount() == 0) {
             System.out.println("\n✗ No students found!");
             return;
         }
 
         System.out.println();
-        for (Student student : students) {
-            System.out.println(student);
+        writeStudents(manager.iterateStudentsByName(""));
+        System.out.println("\nTotal Students: " + manager.getStudentCount());
+    }
+
+    private void searchStudentsByName() {
+        System.out.println("\n--- Search Students by Name ---");
+        System.out.print("Enter the start of the name: ");
+        String prefix = scanner.nextLine().trim();
+
+        Iterator<Student> students = manager.iterateStudentsByName(prefix);
+        if (!students.hasNext()) {
+            System.out.println("\n✗ No students found with a name starting with \"" + prefix + "\"");
+            return;
+        }
+
+        System.out.println();
+        int shown = writeStudents(students);
+        System.out.println("\nStudents shown: " + shown);
+    }
+
+    // Pages through the students a screen at a time; the rest of the
+    // roster is only read if the user keeps going. Returns how many were shown.
+    private int writeStudents(Iterator<Student> students) {
+        int shown = 0;
+        try (ReportWriter out = new ReportWriter(Channels.newChannel(System.out), PAGE_SIZE, this::nextPage)) {
+            while (students.hasNext() && out.startEntry()) {
+                out.student(students.next());
+                shown++;
+            }
+        } catch (IOException e) {
+            System.out.println("\n✗ Error writing students: " + e.getMessage());
         }
-        System.out.println("\nTotal Students: " + students.size());
+        return shown;
     }
 
     private void viewLowAttendanceStudents() {
@@ -389,38 +659,404 @@ public class AttendanceSystem {
     }
 
     private void viewAttendanceReport() {
-        System.out.println("\n========================================");
-        System.out.println("    COMPLETE ATTENDANCE REPORT");
-        System.out.println("========================================");
+        List<StudentReport> reports = manager.generateReport();
+
+        if (reports.isEmpty()) {
+            System.out.println("\n✗ No students found!");
+            return;
+        }
+
+        try (ReportWriter out = openReport()) {
+            out.line("");
+            out.line("========================================");
+            out.line("    COMPLETE ATTENDANCE REPORT");
+            out.line("========================================");
+
+            for (StudentReport report : reports) {
+                if (!out.startEntry()) {
+                    break;
+                }
+                out.line("");
+                out.student(report.getStudent());
+
+                if (report.getTotalCount() == 0) {
+                    out.line("  Overall Attendance: No records");
+                    continue;
+                }
+
+                out.line(String.format("  Overall Attendance: %.2f%%", report.getOverallPercentage()));
+
+                out.line("  Subject-wise Breakdown:");
+                for (Map.Entry<String, Double> entry : report.getSubjectPercentages().entrySet()) {
+                    out.line(String.format("    - %-25s : %.2f%%", entry.getKey(), entry.getValue()));
+                }
+            }
+
+            out.line("");
+            out.line("========================================");
+            out.line("Total Students: " + reports.size());
+            out.line("========================================");
+        } catch (IOException e) {
+            System.out.println("\n✗ Error writing report: " + e.getMessage());
+        }
+    }
+
+    private void viewStudentsAbsentFromAllSessions() {
+        System.out.println("\n--- Students Absent From Every Class ---");
+
+        List<String> subjects = manager.getAllSubjects();
+        if (subjects.isEmpty()) {
+            System.out.println("\n✗ No subjects available!");
+            return;
+        }
+
+        System.out.println("\nAvailable Subjects:");
+        for (int i = 0; i < subjects.size(); i++) {
+            System.out.println((i + 1) + ". " + subjects.get(i));
+        }
 
-        List<Student> students = manager.getStudentsSortedByName();
+        int subjectIndex = getIntInput("Select Subject (number): ") - 1;
+        if (subjectIndex < 0 || subjectIndex >= subjects.size()) {
+            System.out.println("\n✗ Invalid subject selection!");
+            return;
+        }
+
+        String subject = subjects.get(subjectIndex);
+
+        LocalDate from;
+        LocalDate to;
+        try {
+            System.out.print("Enter From Date (dd-MM-yyyy): ");
+            from = LocalDate.parse(scanner.nextLine().trim(), dateFormatter);
+            System.out.print("Enter To Date (dd-MM-yyyy): ");
+            to = LocalDate.parse(scanner.nextLine().trim(), dateFormatter);
+        } catch (DateTimeParseException e) {
+            System.out.println("\n✗ Invalid date format!");
+            return;
+        }
 
+        List<Student> students = manager.getStudentsAbsentFromAllSessions(subject, from, to);
         if (students.isEmpty()) {
-            System.out.println("\n✗ No students found!");
+            System.out.println("\n✓ No student missed every " + subject + " class in this period!");
             return;
         }
 
+        System.out.println("\nStudents absent from every " + subject + " class between "
+                + from.format(dateFormatter) + " and " + to.format(dateFormatter) + ":");
+        System.out.println("----------------------------------------------------------");
         for (Student student : students) {
-            System.out.println("\n" + student);
-            double overallPercentage = manager.calculateAttendancePercentage(student.getStudentId());
+            System.out.println(student);
+        }
+        System.out.println("----------------------------------------------------------");
+        System.out.println("Total Students: " + students.size());
+    }
 
-            if (overallPercentage == 0.0) {
-                System.out.println("  Overall Attendance: No records");
-                continue;
+    private void viewAttendanceTrend() {
+        System.out.println("\n--- View Attendance Trend ---");
+        System.out.println("1. By Subject");
+        System.out.println("2. By Department");
+        int kind = getIntInput("Select (number): ");
+        if (kind != 1 && kind != 2) {
+            System.out.println("\n✗ Invalid selection!");
+            return;
+        }
+
+        List<String> names = kind == 1 ? manager.getAllSubjects() : manager.getAllDepartments();
+        if (names.isEmpty()) {
+            System.out.println(kind == 1 ? "\n✗ No subjects available!" : "\n✗ No departments available!");
+            return;
+        }
+        System.out.println(kind == 1 ? "\nAvailable Subjects:" : "\nAvailable Departments:");
+        for (int i = 0; i < names.size(); i++) {
+            System.out.println((i + 1) + ". " + names.get(i));
+        }
+        int nameIndex = getIntInput("Select (number): ") - 1;
+        if (nameIndex < 0 || nameIndex >= names.size()) {
+            System.out.println("\n✗ Invalid selection!");
+            return;
+        }
+        String name = names.get(nameIndex);
+
+        System.out.println("\n1. Daily");
+        System.out.println("2. Weekly");
+        System.out.println("3. Monthly");
+        int bucketChoice = getIntInput("Select Period (number): ");
+        if (bucketChoice < 1 || bucketChoice > 3) {
+            System.out.println("\n✗ Invalid selection!");
+            return;
+        }
+        TimeBucket bucket = TimeBucket.values()[bucketChoice - 1];
+
+        LocalDate from;
+        LocalDate to;
+        try {
+            System.out.print("Enter From Date (dd-MM-yyyy): ");
+            from = LocalDate.parse(scanner.nextLine().trim(), dateFormatter);
+            System.out.print("Enter To Date (dd-MM-yyyy): ");
+            to = LocalDate.parse(scanner.nextLine().trim(), dateFormatter);
+        } catch (DateTimeParseException e) {
+            System.out.println("\n✗ Invalid date format!");
+            return;
+        }
+
+        List<AttendancePeriod> trend = kind == 1 ? manager.getSubjectTrend(name, bucket, from, to)
+                                                 : manager.getDepartmentTrend(name, bucket, from, to);
+        AttendancePeriod overall = kind == 1 ? manager.getSubjectAttendance(name, from, to)
+                                             : manager.getDepartmentAttendance(name, from, to);
+        if (trend.isEmpty()) {
+            System.out.println("\n✗ No attendance records found in this period!");
+            return;
+        }
+
+        System.out.println("\nAttendance Trend for " + name + ":");
+        System.out.println("----------------------------------------------------------");
+        for (AttendancePeriod period : trend) {
+            System.out.printf("%s to %s : %6.2f%% (%d/%d)%n", period.getFrom().format(dateFormatter),
+                              period.getTo().format(dateFormatter), period.getPercentage(),
+                              period.getPresentCount(), period.getTotalCount());
+        }
+        System.out.println("----------------------------------------------------------");
+        System.out.printf("Overall: %.2f%% (%d/%d)%n", overall.getPercentage(),
+                          overall.getPresentCount(), overall.getTotalCount());
+    }
+
+    private void viewAttendanceBands() {
+        System.out.println("\n--- Attendance Warning Bands ---");
+
+        List<Student> critical = manager.getStudentsInAttendanceRange(0, 65);
+        List<Student> warning = manager.getStudentsInAttendanceRange(65, 75);
+
+        System.out.println("\n✗ CRITICAL - Below 65%:");
+        printStudentsWithPercentage(critical);
+        System.out.println("\n⚠ WARNING - Below 75%:");
+        printStudentsWithPercentage(warning);
+    }
+
+    private void viewLowestAttendanceStudents() {
+        System.out.println("\n--- Lowest Attendance Students ---");
+        int count = getIntInput("How many students? ");
+
+        List<Student> students = manager.getLowestAttendanceStudents(count);
+        if (students.isEmpty()) {
+            System.out.println("\n✗ No attendance records found!");
+            return;
+        }
+
+        System.out.println("\nLowest " + students.size() + " students by attendance:");
+        printStudentsWithPercentage(students);
+    }
+
+    private void viewSystemStats() {
+        System.out.println("\n--- System Stats ---");
+        System.out.println("Students:    " + manager.getStudentCount());
+        System.out.println("Subjects:    " + manager.getSubjectCount());
+        System.out.println("Departments: " + manager.getDepartmentCount());
+        System.out.println("Records:     " + manager.getRecordCount() + " (" + manager.getSegmentCount()
+                + " segment files)");
+        System.out.printf("Est. heap:   %,d KB%n", manager.getEstimatedHeapBytes() / 1024);
+        LocalDate cutoff = manager.getArchiveCutoff();
+        if (cutoff != null) {
+            System.out.println("Archived:    " + manager.getArchivedRecordCount() + " records before "
+                    + cutoff.format(dateFormatter) + " (" + manager.getArchivePartitionCount() + " partitions, "
+                    + manager.getCachedArchivePartitionCount() + "/" + manager.getArchiveCacheCapacity()
+                    + " cached, " + manager.getArchiveCacheHits() + " hits, " + manager.getArchiveCacheMisses()
+                    + " misses)");
+        }
+        RecordCache recordCache = manager.getRecordCache();
+        System.out.printf("Cached:      %d lists, %d records (%d hits, %d misses, %.1f%% hit ratio)%n",
+                          recordCache.size(), recordCache.getRecordCount(), recordCache.getHits(),
+                          recordCache.getMisses(), recordCache.getHitRatio() * 100);
+
+        System.out.println("\n---------------------------------------------------------------------------");
+        System.out.println("operation              |    calls |  mean us |   p50 us |   p99 us |   max us");
+        System.out.println("---------------------------------------------------------------------------");
+        for (LatencyHistogram latency : manager.getMetrics().getLatencies()) {
+            if (latency.getCount() > 0) {
+                System.out.printf("%-22s | %8d | %8.1f | %8.1f | %8.1f | %8.1f%n",
+                                  latency.getName(), latency.getCount(), latency.getMeanMicros(),
+                                  latency.getP50Micros(), latency.getP99Micros(), latency.getMaxMicros());
             }
+        }
+        System.out.println("---------------------------------------------------------------------------");
+        System.out.println("Operations not called yet are not shown.");
+    }
+
+    private void viewAbsenceAlerts() {
+        System.out.println("\n--- Chronic Absence Alerts ---");
+        System.out.println("Rules: " + manager.getAbsenceAlertStreak() + " absences in a row, or "
+                + manager.getAbsenceAlertWeekdayAbsences()
+                + " absences on one weekday making up at least half of its classes");
+
+        List<AbsenceAlert> alerts = manager.getAbsenceAlerts();
+        if (alerts.isEmpty()) {
+            System.out.println("\n✓ No students match an absence pattern!");
+            return;
+        }
+
+        System.out.println("----------------------------------------------------------");
+        for (AbsenceAlert alert : alerts) {
+            System.out.println(alert);
+        }
+        System.out.println("----------------------------------------------------------");
+        System.out.println("Total Alerts: " + alerts.size());
+    }
+
+    private void archiveAttendance() {
+        System.out.println("\n--- Archive Old Attendance ---");
+        if (journal == null) {
+            System.out.println("\n✗ Attendance data is not being saved, so there is nowhere to archive to!");
+            return;
+        }
+        System.out.print("Archive records dated before (dd-MM-yyyy): ");
+        String dateStr = scanner.nextLine().trim();
+
+        LocalDate cutoff;
+        try {
+            cutoff = LocalDate.parse(dateStr, dateFormatter);
+        } catch (DateTimeParseException e) {
+            System.out.println("\n✗ Invalid date format!");
+            return;
+        }
+
+        try {
+            int archived = journal.archive(cutoff);
+            System.out.println("\n✓ Archived " + archived + " records dated before " + cutoff.format(dateFormatter));
+            System.out.println("  They still count towards percentages and reports, but can no longer be changed.");
+        } catch (IllegalArgumentException e) {
+            System.out.println("\n✗ " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("\n✗ Error archiving attendance data: " + e.getMessage());
+        }
+    }
 
-            System.out.printf("  Overall Attendance: %.2f%%%n", overallPercentage);
+    private void printStudentsWithPercentage(List<Student> students) {
+        System.out.println("----------------------------------------------------------");
+        for (Student student : students) {
+            double percentage = manager.calculateAttendancePercentage(student.getStudentId());
+            System.out.printf("%s | Attendance: %.2f%%%n", student, percentage);
+        }
+        System.out.println("----------------------------------------------------------");
+        System.out.println("Total Students: " + students.size());
+    }
 
-            Map<String, Double> subjectPercentages = manager.calculateAttendancePercentageBySubject(student.getStudentId());
+    private void viewDepartmentAttendance() {
+        System.out.println("\n--- Department Attendance ---");
+
+        Map<String, Map<String, Double>> matrix = manager.getDepartmentSubjectMatrix();
+        if (matrix.isEmpty()) {
+            System.out.println("\n✗ No departments available!");
+            return;
+        }
+
+        for (Map.Entry<String, Map<String, Double>> row : matrix.entrySet()) {
+            String department = row.getKey();
+            System.out.println("\n" + department + " (" + manager.getStudentsByDepartment(department).size()
+                    + " students)");
+            if (row.getValue().isEmpty()) {
+                System.out.println("  Overall Attendance: No records");
+                continue;
+            }
+            System.out.printf("  Overall Attendance: %.2f%%%n",
+                              manager.calculateDepartmentAttendancePercentage(department));
             System.out.println("  Subject-wise Breakdown:");
-            for (Map.Entry<String, Double> entry : subjectPercentages.entrySet()) {
-                System.out.printf("    - %-25s : %.2f%%%n", entry.getKey(), entry.getValue());
+            for (Map.Entry<String, Double> cell : row.getValue().entrySet()) {
+                System.out.printf("    - %-25s : %.2f%%%n", cell.getKey(), cell.getValue());
             }
         }
+    }
 
-        System.out.println("\n========================================");
+    private void viewDepartmentLowAttendanceStudents() {
+        System.out.println("\n--- Department Low Attendance Students ---");
+
+        List<String> departments = manager.getAllDepartments();
+        if (departments.isEmpty()) {
+            System.out.println("\n✗ No departments available!");
+            return;
+        }
+
+        System.out.println("\nAvailable Departments:");
+        for (int i = 0; i < departments.size(); i++) {
+            System.out.println((i + 1) + ". " + departments.get(i));
+        }
+
+        int departmentIndex = getIntInput("Select Department (number): ") - 1;
+        if (departmentIndex < 0 || departmentIndex >= departments.size()) {
+            System.out.println("\n✗ Invalid department selection!");
+            return;
+        }
+
+        String department = departments.get(departmentIndex);
+        double threshold = getDoubleInput("Enter threshold percentage (e.g., 75): ");
+
+        List<Student> students = manager.getLowAttendanceStudents(department, threshold);
+        if (students.isEmpty()) {
+            System.out.println("\n✓ No " + department + " students found below " + threshold + "% attendance!");
+            return;
+        }
+
+        System.out.println("\n" + department + " students with attendance below " + threshold + "%:");
+        System.out.println("----------------------------------------------------------");
+        for (Student student : students) {
+            double percentage = manager.calculateAttendancePercentage(student.getStudentId());
+            System.out.printf("%s | Attendance: %.2f%%%n", student, percentage);
+        }
+        System.out.println("----------------------------------------------------------");
         System.out.println("Total Students: " + students.size());
-        System.out.println("========================================");
+    }
+
+    private void importCsv() {
+        System.out.println("\n--- Import Data from CSV ---");
+        System.out.println("Reads students.csv, subjects.csv and attendance.csv (whichever exist).");
+        System.out.print("Enter Folder: ");
+        Path folder = Paths.get(scanner.nextLine().trim());
+
+        AttendanceCsv csv = new AttendanceCsv(manager);
+        Path students = folder.resolve(STUDENTS_CSV);
+        Path subjects = folder.resolve(SUBJECTS_CSV);
+        Path attendance = folder.resolve(ATTENDANCE_CSV);
+        if (!Files.exists(students) && !Files.exists(subjects) && !Files.exists(attendance)) {
+            System.out.println("\n✗ No CSV files found in " + folder.toAbsolutePath());
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (Files.exists(students)) {
+                System.out.println("\n✓ Imported " + csv.importStudents(students) + " students");
+            }
+            if (Files.exists(subjects)) {
+                System.out.println("✓ Imported " + csv.importSubjects(subjects) + " subjects");
+            }
+            if (Files.exists(attendance)) {
+                System.out.println("✓ Imported " + csv.importAttendance(attendance)
+                                   + " attendance records (new or changed)");
+            }
+            System.out.printf("  Finished in %.1f ms%n", (System.nanoTime() - start) / 1_000_000.0);
+        } catch (IllegalArgumentException e) {
+            System.out.println("\n✗ Import stopped: " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("\n✗ Error reading CSV: " + e.getMessage());
+        }
+    }
+
+    private void exportCsv() {
+        System.out.println("\n--- Export Data to CSV ---");
+        System.out.print("Enter Folder: ");
+        Path folder = Paths.get(scanner.nextLine().trim());
+
+        AttendanceCsv csv = new AttendanceCsv(manager);
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(folder);
+            System.out.println("\n✓ Exported " + csv.exportStudents(folder.resolve(STUDENTS_CSV)) + " students");
+            System.out.println("✓ Exported " + csv.exportSubjects(folder.resolve(SUBJECTS_CSV)) + " subjects");
+            System.out.println("✓ Exported " + csv.exportAttendance(folder.resolve(ATTENDANCE_CSV))
+                    + " attendance records");
+            System.out.printf("  Written to %s in %.1f ms%n", folder.toAbsolutePath(),
+                              (System.nanoTime() - start) / 1_000_000.0);
+        } catch (IOException e) {
+            System.out.println("\n✗ Error writing CSV: " + e.getMessage());
+        }
     }
 
     private int getIntInput(String prompt) {
@@ -445,7 +1081,13 @@ public class AttendanceSystem {
         return value;
     }
 
-    public static void main(String[] args) {
+    // java AttendanceSystem batch [commandFile|-] [dataDirectory] runs headless;
+    // see AttendanceBatch.
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("batch")) {
+            AttendanceBatch.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         AttendanceSystem system = new AttendanceSystem();
         system.run();
     }
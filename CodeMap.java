@@ -0,0 +1,51 @@
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+// Values keyed by dense dictionary codes, for one writer and any number of
+// lock-free readers. A slot is filled before the array is republished, and
+// growing copies into a new array, so readers only ever see a value or null.
+public class CodeMap<T> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private volatile Object[] values;
+
+    public CodeMap() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public CodeMap(int capacity) {
+        this.values = new Object[Math.max(capacity, 1)];
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int code) {
+        Object[] current = values;
+        return code >= 0 && code < current.length ? (T) current[code] : null;
+    }
+
+    public void put(int code, T value) {
+        if (code < 0) {
+            throw new IndexOutOfBoundsException("Code: " + code);
+        }
+        Object[] current = values;
+        if (code >= current.length) {
+            current = Arrays.copyOf(current, Math.max(code + 1, current.length + (current.length >> 1)));
+        }
+        current[code] = value;
+        values = current;
+    }
+
+    public T computeIfAbsent(int code, IntFunction<? extends T> factory) {
+        T value = get(code);
+        if (value == null) {
+            value = factory.apply(code);
+            put(code, value);
+        }
+        return value;
+    }
+
+    // One past the highest code that may hold a value.
+    public int capacity() {
+        return values.length;
+    }
+}
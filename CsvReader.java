@@ -0,0 +1,250 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+
+// Line and field reader for comma-separated input, parsing straight from a
+// fixed 64 KB buffer. Each line is split in place, with "" unescaped inside
+// quoted fields, and fields are read as Strings, cached Strings, dates or
+// statuses without copying the line. Errors name the input and line number.
+public class CsvReader implements Closeable {
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final int MAX_FIELDS = 8;
+    private static final byte[] PRESENT = "present".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ABSENT = "absent".getBytes(StandardCharsets.US_ASCII);
+
+    private final String name;
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] bytes;
+    private final int[] fieldStart = new int[MAX_FIELDS];
+    private final int[] fieldEnd = new int[MAX_FIELDS];
+    private int fieldCount;
+    private long lineNumber;
+    private boolean endOfFile;
+
+    public CsvReader(Path path) throws IOException {
+        this(path.getFileName().toString(), FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    // Reads any channel, such as standard input; name prefixes error messages.
+    public CsvReader(String name, ReadableByteChannel channel) {
+        this.name = name;
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        this.bytes = buffer.array();
+        buffer.flip();
+    }
+
+    public void skipHeader(String expected) throws IOException {
+        if (!next()) {
+            return;
+        }
+        String[] columns = expected.split(",");
+        for (int i = 0; i < columns.length; i++) {
+            if (i >= fieldCount || !string(i).equalsIgnoreCase(columns[i])) {
+                throw error("Expected header: " + expected);
+            }
+        }
+    }
+
+    // Reads the next non-blank line and splits it into fields in place.
+    public boolean next() throws IOException {
+        while (true) {
+            int lineEnd = findLineEnd();
+            if (lineEnd < 0) {
+                return false;
+            }
+            lineNumber++;
+            int start = buffer.position();
+            buffer.position(Math.min(lineEnd + 1, buffer.limit()));
+            int end = lineEnd;
+            if (end > start && bytes[end - 1] == '\r') {
+                end--;
+            }
+            if (end > start) {
+                split(start, end);
+                return true;
+            }
+        }
+    }
+
+    // Returns the index of the next '\n' (or the end of the last line),
+    // refilling the buffer while keeping the partial line at its front.
+    // Quoted fields may not span lines.
+    private int findLineEnd() throws IOException {
+        int scanFrom = buffer.position();
+        while (true) {
+            for (int i = scanFrom; i < buffer.limit(); i++) {
+                if (bytes[i] == '\n') {
+                    return i;
+                }
+            }
+            if (endOfFile) {
+                return buffer.hasRemaining() ? buffer.limit() : -1;
+            }
+            int carried = buffer.remaining();
+            if (carried == bytes.length) {
+                throw error("Line longer than " + BUFFER_BYTES + " bytes");
+            }
+            buffer.compact();
+            endOfFile = channel.read(buffer) < 0;
+            buffer.flip();
+            scanFrom = carried;
+        }
+    }
+
+    private void split(int start, int end) {
+        fieldCount = 0;
+        int i = start;
+        while (true) {
+            if (fieldCount == MAX_FIELDS) {
+                throw error("Too many fields");
+            }
+            if (i < end && bytes[i] == '"') {
+                // Quoted field: unescape "" in place; the result is never longer.
+                int write = i + 1;
+                int read = i + 1;
+                fieldStart[fieldCount] = write;
+                while (true) {
+                    if (read >= end) {
+                        throw error("Unterminated quoted field");
+                    }
+                    if (bytes[read] == '"') {
+                        if (read + 1 < end && bytes[read + 1] == '"') {
+                            bytes[write++] = '"';
+                            read += 2;
+                            continue;
+                        }
+                        read++;
+                        break;
+                    }
+                    bytes[write++] = bytes[read++];
+                }
+                fieldEnd[fieldCount++] = write;
+                if (read < end && bytes[read] != ',') {
+                    throw error("Unexpected character after quoted field");
+                }
+                i = read;
+            } else {
+                fieldStart[fieldCount] = i;
+                while (i < end && bytes[i] != ',') {
+                    i++;
+                }
+                fieldEnd[fieldCount++] = i;
+            }
+            if (i >= end) {
+                return;
+            }
+            i++;
+        }
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    public long lineNumber() {
+        return lineNumber;
+    }
+
+    public void requireFields(int count) {
+        if (fieldCount < count) {
+            throw error("Expected " + count + " fields but found " + fieldCount);
+        }
+    }
+
+    public String string(int field) {
+        return new String(bytes, start(field), end(field) - start(field), StandardCharsets.UTF_8);
+    }
+
+    public String cached(int field, StringCache cache) {
+        return cache.get(bytes, start(field), end(field));
+    }
+
+    public int epochDay(int field) {
+        int start = start(field);
+        int end = end(field);
+        if (end - start != 10 || bytes[start + 4] != '-' || bytes[start + 7] != '-') {
+            throw error("Invalid date, expected yyyy-MM-dd");
+        }
+        int year = digits(start, 4);
+        int month = digits(start + 5, 2);
+        int day = digits(start + 8, 2);
+        try {
+            return (int) LocalDate.of(year, month, day).toEpochDay();
+        } catch (RuntimeException e) {
+            throw error("Invalid date: " + e.getMessage());
+        }
+    }
+
+    public boolean status(int field) {
+        int start = start(field);
+        int end = end(field);
+        if (start == end) {
+            throw error("Missing status");
+        }
+        if (matches(start, end, PRESENT)) {
+            return true;
+        }
+        if (matches(start, end, ABSENT)) {
+            return false;
+        }
+        throw error("Invalid status, expected Present or Absent");
+    }
+
+    public IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(name + " line " + lineNumber + ": " + message);
+    }
+
+    // Case-insensitive comparison against a lower-case ASCII word.
+    private boolean matches(int start, int end, byte[] word) {
+        if (end - start != word.length) {
+            return false;
+        }
+        for (int i = 0; i < word.length; i++) {
+            if ((bytes[start + i] | 0x20) != word[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int digits(int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw error("Invalid date, expected yyyy-MM-dd");
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private int start(int field) {
+        int start = fieldStart[field];
+        while (start < fieldEnd[field] && bytes[start] == ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private int end(int field) {
+        int end = fieldEnd[field];
+        while (end > fieldStart[field] && bytes[end - 1] == ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
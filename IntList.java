@@ -0,0 +1,75 @@
+import java.util.Arrays;
+
+// Growable int list for one writer and any number of lock-free readers.
+// Appends only write past the published size, and insert() copies into a
+// new array, so a snapshot() stays valid while the list keeps changing.
+public class IntList {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private volatile int[] values;
+    private volatile int size;
+
+    public IntList() {
+        this.values = new int[INITIAL_CAPACITY];
+    }
+
+    private IntList(int[] values, int size) {
+        this.values = values;
+        this.size = size;
+    }
+
+    public void add(int value) {
+        int[] current = values;
+        int index = size;
+        if (index == current.length) {
+            current = Arrays.copyOf(current, current.length + (current.length >> 1));
+            values = current;
+        }
+        current[index] = value;
+        size = index + 1;
+    }
+
+    public void insert(int index, int value) {
+        int currentSize = size;
+        if (index < 0 || index > currentSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + currentSize);
+        }
+        int[] current = values;
+        int[] copy = new int[Math.max(currentSize + 1, current.length)];
+        System.arraycopy(current, 0, copy, 0, index);
+        System.arraycopy(current, index, copy, index + 1, currentSize - index);
+        copy[index] = value;
+        values = copy;
+        size = currentSize + 1;
+    }
+
+    // A read-only view of the current contents; later changes are not visible in it.
+    public IntList snapshot() {
+        while (true) {
+            int[] current = values;
+            int currentSize = size;
+            if (values == current) {
+                return new IntList(current, currentSize);
+            }
+        }
+    }
+
+    public int get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return values[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+}
@@ -0,0 +1,91 @@
+import java.util.Arrays;
+
+// Finds the row already holding a (student, subject, day) mark, so a repeat
+// overwrites that row instead of appending another. Open addressing over row
+// numbers only: keys are read back from the store, so each slot is 4 bytes
+// and the table stays under half full.
+//
+// Used only by the writer holding AttendanceManager's lock.
+public class MarkIndex {
+    private static final int EMPTY = -1;
+
+    private final AttendanceStore store;
+    private int[] slots;
+    private int size;
+
+    public MarkIndex(AttendanceStore store) {
+        this.store = store;
+        this.slots = new int[1024];
+        Arrays.fill(slots, EMPTY);
+    }
+
+    // The row holding this mark, or -1.
+    public int find(int studentCode, int subjectCode, int epochDay) {
+        int mask = slots.length - 1;
+        for (int slot = hash(studentCode, subjectCode, epochDay) & mask; ; slot = (slot + 1) & mask) {
+            int row = slots[slot];
+            if (row == EMPTY) {
+                return EMPTY;
+            }
+            if (store.getStudentCode(row) == studentCode && store.getSubjectCode(row) == subjectCode
+                    && store.getEpochDay(row) == epochDay) {
+                return row;
+            }
+        }
+    }
+
+    // Indexes a row under its key, replacing any earlier row with the same key.
+    public void put(int row) {
+        if (size * 2 >= slots.length) {
+            resize();
+        }
+        if (insert(slots, row)) {
+            size++;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long estimateBytes() {
+        return (long) Integer.BYTES * slots.length;
+    }
+
+    private boolean insert(int[] table, int row) {
+        int studentCode = store.getStudentCode(row);
+        int subjectCode = store.getSubjectCode(row);
+        int epochDay = store.getEpochDay(row);
+        int mask = table.length - 1;
+        for (int slot = hash(studentCode, subjectCode, epochDay) & mask; ; slot = (slot + 1) & mask) {
+            int existing = table[slot];
+            if (existing == EMPTY) {
+                table[slot] = row;
+                return true;
+            }
+            if (store.getStudentCode(existing) == studentCode && store.getSubjectCode(existing) == subjectCode
+                    && store.getEpochDay(existing) == epochDay) {
+                table[slot] = row;
+                return false;
+            }
+        }
+    }
+
+    private void resize() {
+        int[] old = slots;
+        int[] table = new int[old.length * 2];
+        Arrays.fill(table, EMPTY);
+        for (int row : old) {
+            if (row != EMPTY) {
+                insert(table, row);
+            }
+        }
+        slots = table;
+    }
+
+    private static int hash(int studentCode, int subjectCode, int epochDay) {
+        long key = ((long) studentCode << 32) ^ ((long) subjectCode << 20) ^ epochDay;
+        // The high half of the product depends on every bit of the key.
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+}
@@ -0,0 +1,100 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Single marks waiting for AttendanceManager's lock, striped by thread so
+// writers queue them without contending with each other. A writer that
+// finds no one combining takes the lock once and applies every queued mark
+// in one pass; the others park until theirs is done. Whatever can be done
+// without the lock (validation, code lookups, encoding the journal entry)
+// is done by each writer in parallel before it queues its mark.
+//
+// Each stripe is a stack pushed with compareAndSet and emptied in one swap,
+// so a stripe only sees contention from threads that hash to it.
+public class MarkQueue {
+    private static final int STRIPES = 64;
+
+    public static final class Mark {
+        final int studentCode;
+        final int subjectCode;
+        final int epochDay;
+        final boolean present;
+        final byte[] entry;
+        final Thread owner = Thread.currentThread();
+        Mark next;
+        boolean changed;
+        RuntimeException failure;
+        volatile boolean done;
+
+        public Mark(int studentCode, int subjectCode, int epochDay, boolean present, byte[] entry) {
+            this.studentCode = studentCode;
+            this.subjectCode = subjectCode;
+            this.epochDay = epochDay;
+            this.present = present;
+            this.entry = entry;
+        }
+    }
+
+    private final AtomicReferenceArray<Mark> stripes = new AtomicReferenceArray<>(STRIPES);
+    private final AtomicBoolean combining = new AtomicBoolean();
+
+    public void add(Mark mark) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        Mark head;
+        do {
+            head = stripes.get(stripe);
+            mark.next = head;
+        } while (!stripes.compareAndSet(stripe, head, mark));
+    }
+
+    // Every queued mark, each stripe in the order it was added.
+    public Mark takeAll() {
+        Mark first = null;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            Mark mark = stripes.get(stripe) == null ? null : stripes.getAndSet(stripe, null);
+            // Stripes are stacks: reverse each onto the front of the result.
+            Mark stripeFirst = first;
+            while (mark != null) {
+                Mark next = mark.next;
+                mark.next = stripeFirst;
+                stripeFirst = mark;
+                mark = next;
+            }
+            first = stripeFirst;
+        }
+        return first;
+    }
+
+    public boolean isEmpty() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            if (stripes.get(stripe) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean startCombining() {
+        return !combining.get() && combining.compareAndSet(false, true);
+    }
+
+    // Called after the pass; the caller then checks isEmpty() and combines
+    // again if needed, since a mark queued as the pass ended may have seen
+    // the flag still set.
+    public void stopCombining() {
+        combining.set(false);
+    }
+
+    // Publishes the outcome set on the mark and wakes its owner.
+    public static void complete(Mark mark) {
+        mark.done = true;
+        if (mark.owner != Thread.currentThread()) {
+            LockSupport.unpark(mark.owner);
+        }
+    }
+
+    // Parks until woken by complete(), or spuriously: callers loop on done.
+    public void await() {
+        LockSupport.park(this);
+    }
+}
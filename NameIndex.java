@@ -0,0 +1,68 @@
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// Student codes in case-insensitive name order (String.CASE_INSENSITIVE_ORDER,
+// the order of compareToIgnoreCase), same names in the order they were
+// added. Kept current as students are added, so a page of the roster or
+// the names starting with a prefix cost O(log n + k) instead of a sort.
+//
+// One writer at a time; readers iterate without locking and see every
+// student added before they started.
+public class NameIndex {
+    private static final Comparator<Entry> ORDER = (a, b) -> {
+        int byName = String.CASE_INSENSITIVE_ORDER.compare(a.name, b.name);
+        return byName != 0 ? byName : Integer.compare(a.studentCode, b.studentCode);
+    };
+
+    private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>(ORDER);
+
+    private static final class Entry {
+        private final String name;
+        private final int studentCode;
+
+        Entry(String name, int studentCode) {
+            this.name = name;
+            this.studentCode = studentCode;
+        }
+    }
+
+    public void add(String name, int studentCode) {
+        entries.add(new Entry(name, studentCode));
+    }
+
+    // Codes of the students whose name starts with prefix, ignoring case, in
+    // name order; an empty prefix walks every student. Entries are read
+    // lazily, so stopping early never touches the rest of the index.
+    public PrimitiveIterator.OfInt iterator(String prefix) {
+        Iterator<Entry> tail = entries.tailSet(new Entry(prefix, -1)).iterator();
+        return new PrimitiveIterator.OfInt() {
+            private Entry next = advance();
+
+            private Entry advance() {
+                if (!tail.hasNext()) {
+                    return null;
+                }
+                Entry entry = tail.next();
+                return entry.name.regionMatches(true, 0, prefix, 0, prefix.length()) ? entry : null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                int studentCode = next.studentCode;
+                next = advance();
+                return studentCode;
+            }
+        };
+    }
+}
@@ -0,0 +1,111 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// Students ordered by attendance percentage, lowest first, kept current as
+// marks arrive: a mark replaces the student's entry with one holding the
+// new counts. Order is by exact present/total ratio, ties by student code,
+// so the k lowest or everyone below a threshold is found in O(log n + k).
+// Students with no marks are not indexed.
+//
+// One writer at a time; readers iterate without locking and may miss a
+// student whose entry is being replaced at that moment.
+public class PercentageIndex {
+    private static final Comparator<Entry> ORDER = (a, b) -> {
+        int byRatio = Long.compare((long) a.presentCount * b.totalCount, (long) b.presentCount * a.totalCount);
+        return byRatio != 0 ? byRatio : Integer.compare(a.studentCode, b.studentCode);
+    };
+
+    // Probes carry this much precision for a percentage bound.
+    private static final int PROBE_SCALE = 1_000_000;
+
+    private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>(ORDER);
+
+    public static final class Entry {
+        private final int studentCode;
+        private final int presentCount;
+        private final int totalCount;
+
+        Entry(int studentCode, int presentCount, int totalCount) {
+            this.studentCode = studentCode;
+            this.presentCount = presentCount;
+            this.totalCount = totalCount;
+        }
+
+        public int getStudentCode() {
+            return studentCode;
+        }
+
+        public int getPresentCount() {
+            return presentCount;
+        }
+
+        public int getTotalCount() {
+            return totalCount;
+        }
+
+        // Same arithmetic as AttendanceCounter, so thresholds agree with it.
+        public double getPercentage() {
+            return (presentCount * 100.0) / totalCount;
+        }
+    }
+
+    // Moves a student from their old counts (oldTotal 0 if not yet indexed) to new ones.
+    // Entries compare equal when their ratios match (0/1 and 0/2), so the old
+    // one has to go before the new one is added.
+    public void update(int studentCode, int oldPresent, int oldTotal, int newPresent, int newTotal) {
+        if (oldTotal > 0) {
+            entries.remove(new Entry(studentCode, oldPresent, oldTotal));
+        }
+        if (newTotal > 0) {
+            entries.add(new Entry(studentCode, newPresent, newTotal));
+        }
+    }
+
+    public List<Entry> lowest(int count) {
+        List<Entry> result = new ArrayList<>(Math.min(Math.max(count, 0), 1024));
+        for (Entry entry : entries) {
+            if (result.size() >= count) {
+                break;
+            }
+            result.add(entry);
+        }
+        return result;
+    }
+
+    public List<Entry> highest(int count) {
+        List<Entry> result = new ArrayList<>(Math.min(Math.max(count, 0), 1024));
+        for (Entry entry : entries.descendingSet()) {
+            if (result.size() >= count) {
+                break;
+            }
+            result.add(entry);
+        }
+        return result;
+    }
+
+    // Entries with from <= percentage < to, lowest first.
+    public List<Entry> range(double from, double to) {
+        List<Entry> result = new ArrayList<>();
+        // Start just below the bound and skip the few entries under it, so
+        // the double comparison decides membership, as it does elsewhere.
+        long scaledFrom = (long) Math.floor(from * (PROBE_SCALE / 100)) - 1;
+        Iterable<Entry> candidates = scaledFrom <= 0 ? entries
+                : entries.tailSet(new Entry(-1, (int) Math.min(scaledFrom, Integer.MAX_VALUE), PROBE_SCALE));
+        for (Entry entry : candidates) {
+            double percentage = entry.getPercentage();
+            if (percentage >= to) {
+                break;
+            }
+            if (percentage >= from) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,256 @@
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Results of the whole-history record queries (by student, by date and by
+// subject), so repeated views of unchanged data skip rebuilding their
+// AttendanceRecord objects. Bounded by the number of records held, with
+// each list counting one more so empty results are bounded too; a list
+// larger than the whole budget is never stored. Cached lists are
+// unmodifiable and shared between callers.
+//
+// Nothing here takes a monitor. Lists live in a ConcurrentHashMap, whose
+// bins are locked one by one, and a hit only sets the entry's referenced
+// bit. Eviction is a clock over the map: the hand skips, and clears, lists
+// referenced since it last passed and evicts the first one that was not.
+// Only the thread that stores a list runs it, under a tryLock, so the
+// budget may be exceeded for a moment while another store is evicting.
+//
+// Writers invalidate the student, date and subject a mark touches. Each key
+// also maps to one of a fixed set of version counters that invalidation
+// bumps: a reader takes the version before building a result and checks it
+// again once the list is stored, removing it if it changed, so a list built
+// while its data was changing never stays cached.
+public class RecordCache {
+    public enum Kind {
+        STUDENT, DATE, SUBJECT
+    }
+
+    public static final int DEFAULT_CAPACITY = 250_000;
+
+    // AttendanceRecord with its LocalDate and list slot, and a map entry
+    // with its boxed key, list wrapper and clock entry, for estimateBytes.
+    private static final long RECORD_BYTES = 56;
+    private static final long ENTRY_BYTES = 112;
+    private static final int VERSION_STRIPES = 1024;
+
+    private static final class Entry {
+        final List<AttendanceRecord> records;
+        volatile boolean referenced;
+
+        Entry(List<AttendanceRecord> records) {
+            this.records = records;
+        }
+    }
+
+    private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>(64);
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+    private final AtomicLong recordCount = new AtomicLong();
+    private final AtomicLong entryCount = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final ReentrantLock clockLock = new ReentrantLock();
+    private Iterator<Map.Entry<Long, Entry>> clockHand;
+    private volatile int capacity;
+
+    public RecordCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RecordCache(int capacity) {
+        setCapacity(capacity);
+    }
+
+    public List<AttendanceRecord> get(Kind kind, int code) {
+        Entry entry = entries.get(key(kind, code));
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        return entry.records;
+    }
+
+    // Taken before building a result, and passed back to put().
+    public long version(Kind kind, int code) {
+        return versions.get(stripe(key(kind, code)));
+    }
+
+    // Stores a freshly built result and returns the list to hand out.
+    public List<AttendanceRecord> put(Kind kind, int code, List<AttendanceRecord> records, long version) {
+        List<AttendanceRecord> shared = Collections.unmodifiableList(records);
+        long key = key(kind, code);
+        int stripe = stripe(key);
+        if (versions.get(stripe) != version || records.size() + 1 > capacity) {
+            return shared;
+        }
+        Entry entry = new Entry(shared);
+        Entry replaced = entries.put(key, entry);
+        if (replaced == null) {
+            entryCount.incrementAndGet();
+        } else {
+            recordCount.addAndGet(-replaced.records.size());
+        }
+        recordCount.addAndGet(records.size());
+        // An invalidation that bumped the version before the put may have
+        // found nothing to remove.
+        if (versions.get(stripe) != version) {
+            remove(key, entry);
+            return shared;
+        }
+        while (overBudget() && clockLock.tryLock()) {
+            try {
+                if (!evict()) {
+                    break;
+                }
+            } finally {
+                clockLock.unlock();
+            }
+        }
+        return shared;
+    }
+
+    // Drops the cached lists a mark for (student, day, subject) changes.
+    public void invalidateMark(int studentCode, int epochDay, int subjectCode) {
+        invalidate(key(Kind.STUDENT, studentCode));
+        invalidate(key(Kind.DATE, epochDay));
+        invalidate(key(Kind.SUBJECT, subjectCode));
+    }
+
+    public void invalidate(Kind kind, int code) {
+        invalidate(key(kind, code));
+    }
+
+    public void clear() {
+        for (int stripe = 0; stripe < VERSION_STRIPES; stripe++) {
+            versions.incrementAndGet(stripe);
+        }
+        for (Map.Entry<Long, Entry> entry : entries.entrySet()) {
+            remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Cache capacity cannot be negative: " + capacity);
+        }
+        this.capacity = capacity;
+        clockLock.lock();
+        try {
+            while (overBudget() && evict()) {
+                // keep sweeping
+            }
+        } finally {
+            clockLock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return (int) entryCount.get();
+    }
+
+    public long getRecordCount() {
+        return recordCount.get();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+        return lookups == 0 ? 0.0 : (double) hitCount / lookups;
+    }
+
+    public void resetStatistics() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    public long estimateBytes() {
+        return RECORD_BYTES * recordCount.get() + ENTRY_BYTES * entryCount.get()
+                + (long) Long.BYTES * VERSION_STRIPES;
+    }
+
+    private void invalidate(long key) {
+        versions.incrementAndGet(stripe(key));
+        if (entryCount.get() != 0) {
+            Entry removed = entries.remove(key);
+            if (removed != null) {
+                entryCount.decrementAndGet();
+                recordCount.addAndGet(-removed.records.size());
+            }
+        }
+    }
+
+    private boolean remove(long key, Entry entry) {
+        if (!entries.remove(key, entry)) {
+            return false;
+        }
+        entryCount.decrementAndGet();
+        recordCount.addAndGet(-entry.records.size());
+        return true;
+    }
+
+    private boolean overBudget() {
+        return recordCount.get() + entryCount.get() > capacity;
+    }
+
+    // Moves the hand on to the next list nobody read since its last pass and
+    // evicts it. After two full turns, with readers still setting the bits,
+    // the next list goes anyway. Returns false if the map is empty. Called
+    // holding clockLock.
+    private boolean evict() {
+        int turns = 0;
+        while (true) {
+            if (clockHand == null || !clockHand.hasNext()) {
+                clockHand = entries.entrySet().iterator();
+                if (!clockHand.hasNext()) {
+                    return false;
+                }
+                turns++;
+            }
+            Map.Entry<Long, Entry> next = clockHand.next();
+            Entry entry = next.getValue();
+            if (entry.referenced && turns <= 2) {
+                entry.referenced = false;
+            } else if (remove(next.getKey(), entry)) {
+                evictions.increment();
+                return true;
+            }
+        }
+    }
+
+    private static long key(Kind kind, int code) {
+        return ((long) kind.ordinal() << 32) | (code & 0xFFFFFFFFL);
+    }
+
+    private static int stripe(long key) {
+        // Same mixing as MarkIndex: the high half of the product depends on every bit.
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (VERSION_STRIPES - 1);
+    }
+}
@@ -0,0 +1,197 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+
+// Buffered text output for reports. Each line is built in one reusable
+// StringBuilder and encoded into a fixed 64 KB buffer that is written to
+// the channel only when full, so a large report costs a handful of writes
+// instead of one per line. Records and students are laid out by hand in the
+// same format as their toString(), without String.format.
+//
+// With a page size, output is split into pages of at least that many lines,
+// broken only between entries (a record, or whatever the caller groups with
+// startEntry). The writer calls its PageBreak before each new page;
+// returning false stops the output.
+public class ReportWriter implements Closeable {
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    public interface PageBreak {
+        boolean next();
+    }
+
+    private final WritableByteChannel channel;
+    private final boolean closeChannel;
+    private final int pageSize;
+    private final PageBreak pageBreak;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private final StringBuilder line = new StringBuilder(160);
+    private final char[] date = new char[10];
+    private int lastEpochDay = Integer.MIN_VALUE;
+    private int linesOnPage;
+    private boolean stopped;
+    private long linesWritten;
+
+    // Writes everything at full speed, without paging.
+    public ReportWriter(WritableByteChannel channel) {
+        this(channel, false, 0, null);
+    }
+
+    // Pages records on a channel the caller keeps open, such as the console.
+    public ReportWriter(WritableByteChannel channel, int pageSize, PageBreak pageBreak) {
+        this(channel, false, pageSize, pageBreak);
+    }
+
+    private ReportWriter(WritableByteChannel channel, boolean closeChannel, int pageSize, PageBreak pageBreak) {
+        this.channel = channel;
+        this.closeChannel = closeChannel;
+        this.pageSize = pageSize;
+        this.pageBreak = pageBreak;
+    }
+
+    public static ReportWriter toFile(Path path) throws IOException {
+        return new ReportWriter(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                 StandardOpenOption.TRUNCATE_EXISTING), true, 0, null);
+    }
+
+    public void line(String text) throws IOException {
+        line.setLength(0);
+        line.append(text);
+        writeLine();
+    }
+
+    public void student(Student student) throws IOException {
+        line.setLength(0);
+        line.append("ID: ");
+        pad(student.getStudentId(), 10);
+        line.append(" | Name: ");
+        pad(student.getName(), 20);
+        line.append(" | Email: ");
+        pad(student.getEmail(), 25);
+        line.append(" | Dept: ").append(student.getDepartment());
+        writeLine();
+    }
+
+    // Returns false once the reader has asked to stop paging.
+    public boolean record(AttendanceRecord record) throws IOException {
+        if (!startEntry()) {
+            return false;
+        }
+        line.setLength(0);
+        line.append("Student: ");
+        pad(record.getStudentId(), 10);
+        line.append(" | Date: ");
+        appendDate((int) record.getDate().toEpochDay());
+        line.append(" | Subject: ");
+        pad(record.getSubject(), 15);
+        line.append(" | Status: ").append(record.isPresent() ? "Present" : "Absent");
+        writeLine();
+        return true;
+    }
+
+    // Call before writing each entry; returns false once the reader has
+    // asked to stop paging.
+    public boolean startEntry() throws IOException {
+        if (stopped) {
+            return false;
+        }
+        if (pageSize > 0 && linesOnPage >= pageSize) {
+            flush();
+            if (!pageBreak.next()) {
+                stopped = true;
+                return false;
+            }
+            linesOnPage = 0;
+        }
+        return true;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public long getLinesWritten() {
+        return linesWritten;
+    }
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (closeChannel) {
+                channel.close();
+            }
+        }
+    }
+
+    private void pad(String value, int width) {
+        line.append(value);
+        for (int i = value.length(); i < width; i++) {
+            line.append(' ');
+        }
+    }
+
+    private void appendDate(int epochDay) {
+        if (epochDay != lastEpochDay) {
+            LocalDate value = LocalDate.ofEpochDay(epochDay);
+            digits(value.getDayOfMonth(), 0, 2);
+            date[2] = '-';
+            digits(value.getMonthValue(), 3, 2);
+            date[5] = '-';
+            digits(value.getYear(), 6, 4);
+            lastEpochDay = epochDay;
+        }
+        line.append(date);
+    }
+
+    private void digits(int value, int offset, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            date[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    // ASCII lines are copied byte by byte; anything else is encoded as UTF-8.
+    private void writeLine() throws IOException {
+        line.append('\n');
+        int length = line.length();
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; i++) {
+            ascii = line.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            for (int i = 0; i < length; i++) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                buffer.put((byte) line.charAt(i));
+            }
+        } else {
+            byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+            for (int offset = 0; offset < bytes.length; ) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int count = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, count);
+                offset += count;
+            }
+        }
+        linesWritten++;
+        linesOnPage++;
+    }
+}
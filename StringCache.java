@@ -0,0 +1,51 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Maps the bytes of an id or subject to a single shared String, so
+// repeated values cost a hash and a byte comparison, not an allocation.
+// Cleared when full to keep memory bounded.
+public class StringCache {
+    public static final int CAPACITY = 1 << 16;
+
+    private final byte[][] keys = new byte[CAPACITY][];
+    private final String[] values = new String[CAPACITY];
+    private int size;
+
+    public String get(byte[] bytes, int start, int end) {
+        int hash = 1;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        int mask = CAPACITY - 1;
+        for (int slot = (hash ^ (hash >>> 16)) & mask; ; slot = (slot + 1) & mask) {
+            byte[] key = keys[slot];
+            if (key == null) {
+                if (size >= CAPACITY / 2) {
+                    Arrays.fill(keys, null);
+                    Arrays.fill(values, null);
+                    size = 0;
+                    return get(bytes, start, end);
+                }
+                keys[slot] = Arrays.copyOfRange(bytes, start, end);
+                values[slot] = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+                size++;
+                return values[slot];
+            }
+            if (equal(key, bytes, start, end)) {
+                return values[slot];
+            }
+        }
+    }
+
+    private static boolean equal(byte[] key, byte[] bytes, int start, int end) {
+        if (key.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != bytes[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
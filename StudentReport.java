@@ -0,0 +1,39 @@
+import java.util.Map;
+
+// One student's line in the complete attendance report: overall counts and
+// a per-subject breakdown. They are read from live counters without a lock,
+// so a mark landing during the report may show in one and not the other;
+// present never exceeds total.
+public class StudentReport {
+    private Student student;
+    private int presentCount;
+    private int totalCount;
+    private Map<String, Double> subjectPercentages;
+
+    public StudentReport(Student student, int presentCount, int totalCount, Map<String, Double> subjectPercentages) {
+        this.student = student;
+        this.presentCount = presentCount;
+        this.totalCount = totalCount;
+        this.subjectPercentages = subjectPercentages;
+    }
+
+    public Student getStudent() {
+        return student;
+    }
+
+    public int getPresentCount() {
+        return presentCount;
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    public double getOverallPercentage() {
+        return totalCount == 0 ? 0.0 : (presentCount * 100.0) / totalCount;
+    }
+
+    public Map<String, Double> getSubjectPercentages() {
+        return subjectPercentages;
+    }
+}
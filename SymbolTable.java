@@ -0,0 +1,49 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Codes are assigned by one writer at a time and can be read concurrently:
+// a code is only published once its symbol is in place.
+public class SymbolTable {
+    private ConcurrentHashMap<String, Integer> codes;
+    private volatile String[] symbols;
+    private volatile int size;
+
+    public SymbolTable() {
+        this.codes = new ConcurrentHashMap<>();
+        this.symbols = new String[16];
+    }
+
+    public synchronized int intern(String symbol) {
+        Integer code = codes.get(symbol);
+        if (code != null) {
+            return code;
+        }
+        int newCode = size;
+        String[] current = symbols;
+        if (newCode == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[newCode] = symbol;
+        symbols = current;
+        size = newCode + 1;
+        // Last, so a reader that finds the code can always resolve it.
+        codes.put(symbol, newCode);
+        return newCode;
+    }
+
+    public int codeOf(String symbol) {
+        Integer code = codes.get(symbol);
+        return code == null ? -1 : code;
+    }
+
+    public String symbolOf(int code) {
+        if (code < 0 || code >= size) {
+            throw new IndexOutOfBoundsException("Code: " + code + ", Size: " + size);
+        }
+        return symbols[code];
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,31 @@
+import java.time.LocalDate;
+
+// Rollup granularities. Buckets are identified by the epoch day they start
+// on: the day itself, the Monday of its ISO week, or the first of its month.
+public enum TimeBucket {
+    DAY, WEEK, MONTH;
+
+    public int startOf(int epochDay) {
+        switch (this) {
+            case WEEK:
+                // Epoch day 0 (1970-01-01) was a Thursday.
+                return epochDay - Math.floorMod(epochDay + 3, 7);
+            case MONTH:
+                return (int) LocalDate.ofEpochDay(epochDay).withDayOfMonth(1).toEpochDay();
+            default:
+                return epochDay;
+        }
+    }
+
+    // First day of the bucket after the one starting on bucketStart.
+    public int nextStart(int bucketStart) {
+        switch (this) {
+            case WEEK:
+                return bucketStart + 7;
+            case MONTH:
+                return (int) LocalDate.ofEpochDay(bucketStart).plusMonths(1).toEpochDay();
+            default:
+                return bucketStart + 1;
+        }
+    }
+}